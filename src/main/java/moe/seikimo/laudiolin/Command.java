@@ -1,13 +1,22 @@
 package moe.seikimo.laudiolin;
 
+import moe.seikimo.laudiolin.files.DownloadManager;
+import moe.seikimo.laudiolin.files.PreCache;
+import moe.seikimo.laudiolin.files.StorageManager;
 import moe.seikimo.laudiolin.gateway.Gateway;
+import moe.seikimo.laudiolin.gateway.GatewaySession;
+import moe.seikimo.laudiolin.gateway.Mailbox;
+import moe.seikimo.laudiolin.gateway.Outbox;
+import moe.seikimo.laudiolin.gateway.SyncScheduler;
 import moe.seikimo.laudiolin.utils.ElixirUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 public final class Command {
@@ -15,6 +24,12 @@ public final class Command {
     private static final Map<String, Consumer<List<String>>> commands = new HashMap<>() {{
         this.put("elixir", Command::elixirCommand);
         this.put("user", Command::userCommand);
+        this.put("downloads", Command::downloadsCommand);
+        this.put("storage", Command::storageCommand);
+        this.put("tokens", Command::tokensCommand);
+        this.put("users", Command::usersCommand);
+        this.put("tracks", Command::tracksCommand);
+        this.put("gateway", Command::gatewayCommand);
     }};
 
     /**
@@ -392,4 +407,151 @@ public final class Command {
             }
         }
     }
+
+    /**
+     * Command handler for '/downloads'.
+     *
+     * @param args The command arguments.
+     */
+    private static void downloadsCommand(List<String> args) {
+        logger.info("Transcoding: {}", DownloadManager.getInFlight());
+        logger.info("Queued: {}", DownloadManager.getQueued());
+        logger.info("Distinct tracks pending: {}", DownloadManager.getPending());
+        logger.info("Pre-caching: {} ({} queued)", PreCache.getWarming(), PreCache.getQueued());
+    }
+
+    /**
+     * Command handler for '/storage'.
+     *
+     * @param args The command arguments.
+     */
+    private static void storageCommand(List<String> args) {
+        if (!args.isEmpty() && args.get(0).equals("migrate")) {
+            // Migrate the storage directory in the background.
+            new Thread(StorageManager::migrate).start();
+            return;
+        }
+
+        logger.info("Cached tracks: {} ({} bytes)",
+                StorageManager.getTotalFiles(), StorageManager.getTotalBytes());
+        logger.info("Hits: {}, misses: {}, evictions: {}",
+                StorageManager.getHits().get(), StorageManager.getMisses().get(),
+                StorageManager.getEvictions().get());
+    }
+
+    /**
+     * Command handler for '/tokens'.
+     *
+     * @param args The arguments to pass to the command.
+     */
+    private static void tokensCommand(List<String> args) {
+        var hits = TokenCache.getHits().get();
+        var misses = TokenCache.getMisses().get();
+        var lookups = hits + misses;
+
+        logger.info("Cached tokens: {}", TokenCache.getSize());
+        logger.info("Hits: {}, misses: {}, loads: {} ({}% hit rate)",
+                hits, misses, TokenCache.getLoads().get(),
+                lookups == 0 ? 0 : hits * 100 / lookups);
+    }
+
+    /**
+     * Command handler for '/users'.
+     *
+     * @param args The arguments to pass to the command.
+     */
+    private static void usersCommand(List<String> args) {
+        if (!args.isEmpty() && args.get(0).equals("flush")) {
+            // Write the pending changes now.
+            UserCache.flush();
+            logger.info("Wrote pending user changes.");
+            return;
+        }
+
+        var hits = UserCache.getHits().get();
+        var misses = UserCache.getMisses().get();
+        var lookups = hits + misses;
+
+        logger.info("Cached users: {}, pending writes: {}",
+                UserCache.getSize(), UserCache.getPending());
+        logger.info("Hits: {}, misses: {}, batched writes: {} ({}% hit rate)",
+                hits, misses, UserCache.getWrites().get(),
+                lookups == 0 ? 0 : hits * 100 / lookups);
+    }
+
+    /**
+     * Command handler for '/tracks'.
+     *
+     * @param args The arguments to pass to the command.
+     */
+    private static void tracksCommand(List<String> args) {
+        if (!args.isEmpty() && args.get(0).equals("migrate")) {
+            // Migrate the embedded tracks in the background.
+            new Thread(TrackStore::migrate).start();
+            return;
+        }
+        if (!args.isEmpty() && args.get(0).equals("repair")) {
+            // Repair the tracks with old URLs in the background.
+            TrackStore.requestRepair();
+            return;
+        }
+
+        var hits = TrackStore.getHits().get();
+        var misses = TrackStore.getMisses().get();
+        var lookups = hits + misses;
+
+        logger.info("Cached tracks: {}", TrackStore.getSize());
+        logger.info("Hits: {}, misses: {}, queries: {}, writes: {} ({}% hit rate)",
+                hits, misses, TrackStore.getLoads().get(), TrackStore.getWrites().get(),
+                lookups == 0 ? 0 : hits * 100 / lookups);
+    }
+
+    /**
+     * Command handler for '/gateway'.
+     *
+     * @param args The arguments to pass to the command.
+     */
+    private static void gatewayCommand(List<String> args) {
+        if (!args.isEmpty() && args.get(0).equals("queues")) {
+            Command.gatewayQueues();
+            return;
+        }
+        if (!args.isEmpty() && args.get(0).equals("syncs")) {
+            logger.info("Host changes: {}, full syncs: {}, delta syncs: {}, skipped: {}",
+                    SyncScheduler.getChanges().get(), SyncScheduler.getFull().get(),
+                    SyncScheduler.getDeltas().get(), SyncScheduler.getSkipped().get());
+            return;
+        }
+
+        logger.info("Usage: /gateway <queues|syncs>");
+    }
+
+    /**
+     * Logs the state of the gateway's outbound queues.
+     * The sessions with the most pending messages are listed.
+     */
+    private static void gatewayQueues() {
+        var sessions = Gateway.getSessions().values();
+        logger.info("Sessions: {}, queued messages: {}", sessions.size(),
+                sessions.stream().mapToInt(s -> s.getOutbox().getDepth()).sum());
+        logger.info("Sent: {}, coalesced: {}, dropped: {}, disconnected: {}",
+                Outbox.getTotalSent().get(), Outbox.getTotalCoalesced().get(),
+                Outbox.getTotalDropped().get(), Outbox.getTotalDisconnected().get());
+        logger.info("Pending messages: {}, handled: {}, rejected: {}",
+                sessions.stream().mapToInt(s -> s.getMailbox().getDepth()).sum(),
+                Mailbox.getTotalHandled().get(), Mailbox.getTotalRejected().get());
+
+        sessions.stream()
+                .sorted(Comparator.comparingInt((GatewaySession s) ->
+                        s.getOutbox().getDepth()).reversed())
+                .limit(10)
+                .filter(s -> s.getOutbox().getHighWater() > 0)
+                .forEach(s -> {
+                    var outbox = s.getOutbox();
+                    logger.info("{}: {} queued ({} at most), {} sent, {} coalesced, {} dropped",
+                            Objects.requireNonNullElse(s.getId(), s.getSession().getRemoteAddress()),
+                            outbox.getDepth(), outbox.getHighWater(), outbox.getSent().get(),
+                            outbox.getCoalesced().get(), outbox.getDropped().get());
+                });
+    }
 }
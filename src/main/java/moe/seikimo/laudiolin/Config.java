@@ -64,13 +64,19 @@ public final class Config {
     private String ffmpegPath = "/usr/bin/ffmpeg";
     private String mongoUri = "mongodb://localhost:27017";
     private String storagePath = "files";
+    private boolean virtualThreads = false;
 
     public SeiKiMo seikimo = new SeiKiMo();
     public Elixir elixir = new Elixir();
     public Discord discord = new Discord();
     public Spotify spotify = new Spotify();
     public YouTube youtube = new YouTube();
+    public Ipc ipc = new Ipc();
     public RateLimits rateLimits = new RateLimits();
+    public Timeouts timeouts = new Timeouts();
+    public Accounts accounts = new Accounts();
+    public Database database = new Database();
+    public Gateway gateway = new Gateway();
     public Storage storage = new Storage();
     public PublicData publicData = new PublicData();
 
@@ -104,6 +110,14 @@ public final class Config {
         private String clientData;
     }
 
+    @Data
+    public static final class Ipc {
+        private int requestTimeout = 60; // The time (in seconds) to wait for a response from Node.
+        private int workers = 1; // The amount of Node processes to start.
+        private int healthCheckInterval = 10; // The time (in seconds) between worker health checks.
+        private int streamWindow = 8; // The amount of stream chunks Node may send before they are acknowledged.
+    }
+
     @Data
     public static final class RateLimits {
         private int maxRequests = 100;
@@ -116,11 +130,66 @@ public final class Config {
         private List<String> whitelist = new ArrayList<>();
     }
 
+    @Data
+    public static final class Timeouts {
+        private int search = 15; // The time (in seconds) a search may take.
+        private int fetch = 15; // The time (in seconds) fetching a track may take.
+        private int importPlaylist = 120; // The time (in seconds) importing a playlist may take.
+        private int stream = 30; // The time (in seconds) resolving a stream may take before it is sent.
+        private int download = 300; // The time (in seconds) downloading a track may take before it is sent.
+    }
+
+    @Data
+    public static final class Accounts {
+        private long tokenTtl = 300; // The time (in seconds) a token's user is cached for. 0 disables caching.
+        private long invalidTokenTtl = 30; // The time (in seconds) an invalid token is remembered for.
+        private int maxTokens = 10000; // The maximum amount of cached tokens. 0 for no limit.
+        private long userCacheTtl = 600; // The time (in seconds) a loaded user is cached for.
+        private int maxUsers = 5000; // The maximum amount of cached users. 0 for no limit.
+        private long writeBehindInterval = 10; // The time (in seconds) between writes of recently played tracks.
+    }
+
+    @Data
+    public static final class Database {
+        private long trackCacheTtl = 3600; // The time (in seconds) a loaded track is cached for.
+        private int maxTracks = 50000; // The maximum amount of cached tracks. 0 for no limit.
+        private boolean migrateTracks = true; // Toggle to move embedded tracks into the tracks collection on startup.
+        private int migrationBatchSize = 100; // The amount of documents migrated per write.
+        private int repairThreads = 4; // The amount of tracks with old URLs looked up at once.
+        private int repairRate = 5; // The maximum amount of tracks with old URLs looked up per second.
+        private int playlistPageSize = 100; // The amount of tracks in a playlist page when no limit is given.
+        private int maxPlaylistPageSize = 500; // The maximum amount of tracks in a playlist page.
+    }
+
+    @Data
+    public static final class Gateway {
+        private int handlerThreads = 8; // The amount of threads handling client messages without virtual threads.
+        private int maxMailboxSize = 64; // The maximum amount of messages from a client waiting to be handled. 0 for no limit.
+        private int maxQueuedMessages = 256; // The maximum amount of messages waiting to be sent to a client. 0 for no limit.
+        private boolean disconnectLaggards = true; // Toggle to disconnect clients with a full queue instead of dropping their oldest messages.
+        private long syncWindow = 50; // The time (in milliseconds) host changes are collected before listeners are synced.
+        private long syncInterval = 250; // The minimum time (in milliseconds) between syncs of a host's listeners.
+        private float syncTolerance = 1.0f; // The drift (in seconds) from the extrapolated position which is not synced.
+    }
+
     @Data
     public static final class Storage {
         public boolean hostRemote = true; // Toggle to host only local files.
         public boolean searchRemote = true; // Toggle to search only local files.
         public String tracks = "tracks"; // This is where songs are located. Must be in MP3 format with proper metadata.
+        public long segmentCacheSize = 268435456L; // The maximum size (in bytes) of cached remote stream segments.
+        public int maxDownloads = 4; // The maximum amount of tracks transcoded at once.
+        public long streamInfoExpiry = 21600; // The time (in seconds) stream metadata is cached for.
+        public int readAheadWindows = 4; // The maximum amount of stream windows cached ahead of playback. 0 disables read-ahead.
+        public int readAheadThreads = 2; // The amount of threads caching stream windows ahead of playback.
+        public int preCacheTracks = 3; // The amount of queued tracks warmed ahead of being played.
+        public int preCacheThreads = 2; // The maximum amount of tracks warmed at once.
+        public boolean preCacheDownload = false; // Toggle to transcode queued tracks instead of caching their first segments.
+        public long preCacheBytes = 524288L; // The amount of bytes cached from the start of queued tracks.
+        public long maxCacheBytes = 10737418240L; // The maximum size (in bytes) of downloaded tracks. 0 for no limit.
+        public int maxCacheFiles = 0; // The maximum amount of downloaded tracks. 0 for no limit.
+        public String evictionPolicy = "LRU"; // Which downloaded tracks are evicted first. Either 'LRU' or 'LFU'.
+        public boolean deduplicate = true; // Toggle to store stored files with identical content once.
     }
 
     @Data
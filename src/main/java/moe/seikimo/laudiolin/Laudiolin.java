@@ -10,14 +10,22 @@ import io.javalin.config.JavalinConfig;
 import io.javalin.json.JavalinGson;
 import io.javalin.plugin.bundled.CorsPluginConfig;
 import lombok.Getter;
+import moe.seikimo.laudiolin.files.DownloadManager;
 import moe.seikimo.laudiolin.files.LocalFileManager;
+import moe.seikimo.laudiolin.files.PreCache;
+import moe.seikimo.laudiolin.files.ReadAhead;
+import moe.seikimo.laudiolin.files.SegmentCache;
+import moe.seikimo.laudiolin.files.StorageManager;
+import moe.seikimo.laudiolin.files.StreamInfoCache;
 import moe.seikimo.laudiolin.gateway.Gateway;
 import moe.seikimo.laudiolin.gateway.PeerSignaling;
+import moe.seikimo.laudiolin.gateway.SyncScheduler;
 import moe.seikimo.laudiolin.objects.Constants;
 import moe.seikimo.laudiolin.routers.*;
 import moe.seikimo.laudiolin.utils.EncodingUtils;
 import moe.seikimo.laudiolin.utils.NetUtils;
 import moe.seikimo.laudiolin.utils.SpotifyUtils;
+import moe.seikimo.laudiolin.utils.ThreadUtils;
 import org.jline.reader.EndOfFileException;
 import org.jline.reader.LineReader;
 import org.jline.reader.LineReaderBuilder;
@@ -29,7 +37,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOError;
 import java.io.IOException;
-import java.net.ConnectException;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -56,13 +63,13 @@ public final class Laudiolin {
             = LoggerFactory.getLogger("Laudiolin Backend");
     @Getter private static final Javalin javalin
             = Javalin.create(Laudiolin::configureJavalin);
-    @Getter private static final ExecutorService threadPool
+    @Getter private static ExecutorService threadPool
             = new ScheduledThreadPoolExecutor(4);
+    /* Writes the responses of asynchronous requests. */
+    @Getter private static ExecutorService responsePool;
     @Getter private static final Map<String, String> arguments
             = new HashMap<>();
 
-    @Getter private static Node node = null;
-    private static Process nodeProcess = null;
     private static LineReader lineReader = null;
 
     @Getter private static MongoClient mongoClient;
@@ -82,6 +89,13 @@ public final class Laudiolin {
                 Config.load(arguments.getOrDefault("config", "config.json"));
 
                 logger.info("Configuration loaded.");
+
+                // Use virtual threads if enabled.
+                if (ThreadUtils.useVirtualThreads()) {
+                    threadPool.shutdown();
+                    threadPool = ThreadUtils.newExecutor(4);
+                }
+                responsePool = ThreadUtils.newUnboundedExecutor();
             }
 
             {
@@ -101,6 +115,15 @@ public final class Laudiolin {
                 // Initialize systems.
                 SpotifyUtils.initialize();
                 LocalFileManager.initialize();
+                StorageManager.initialize();
+                SegmentCache.initialize();
+                StreamInfoCache.initialize();
+                ReadAhead.initialize();
+                PreCache.initialize();
+                DownloadManager.initialize();
+                TokenCache.initialize();
+                UserCache.initialize();
+                SyncScheduler.initialize();
             }
 
             {
@@ -108,19 +131,8 @@ public final class Laudiolin {
                         Integer.parseInt(arguments.get("port")) :
                         NetUtils.findFreePort();
 
-                // Check if a Node instance should start.
-                if (!arguments.containsKey("no-node")) {
-                    if (Laudiolin.startNode(networkPort)) try {
-                        // Wait for the Node instance to start.
-                        Thread.sleep(1000);
-                    } catch (InterruptedException exception) {
-                        logger.error("Failed to wait for Node instance to start.");
-                    }
-                }
-
-                // Create a node instance.
-                Laudiolin.node = new Node(networkPort);
-                Laudiolin.node.connect();
+                // Start the Node workers.
+                NodePool.initialize(!arguments.containsKey("no-node"), networkPort);
             }
 
             if (!Properties.HEADLESS_ENVIRONMENT) {
@@ -151,6 +163,9 @@ public final class Laudiolin {
                 datastore.ensureIndexes();
 
                 logger.info("Connected to database.");
+
+                // Normalize embedded tracks.
+                TrackStore.initialize();
             }
 
             {
@@ -174,6 +189,7 @@ public final class Laudiolin {
                 PeerSignaling.configure(javalin);
 
                 // Start the Javalin instance.
+                ThreadUtils.configureServer(javalin.jettyServer().server());
                 javalin.start(Config.get().getPort());
 
                 logger.info("Javalin started.");
@@ -183,7 +199,7 @@ public final class Laudiolin {
             logger.info("Laudiolin backend started in {}ms.",
                     System.currentTimeMillis() - startTime);
             Laudiolin.started = true;
-        } catch (ConnectException | URISyntaxException ignored) {
+        } catch (URISyntaxException ignored) {
             logger.error("Unable to find the Node pipe.");
         } catch (IOException exception) {
             logger.error("Failed to start Laudiolin.", exception);
@@ -239,56 +255,10 @@ public final class Laudiolin {
     }
 
     /**
-     * Starts a Node instance.
-     *
-     * @param port The port to use.
-     * @return Whether the Node instance started successfully.
+     * @return The Node client with the least outstanding requests.
      */
-    private static boolean startNode(int port) {
-        var nodeExecutable = arguments.getOrDefault(
-                "node", "node");
-
-        var storagePath = Constants.STORAGE_PATH.getAbsolutePath();
-        var youtube = Config.get().getYoutube();
-
-        try {
-            // Execute the Node instance.
-            var runtime = Runtime.getRuntime();
-            Laudiolin.nodeProcess = runtime.exec(
-                    nodeExecutable + " index.js",
-                    new String[] {
-                            "PORT=" + port,
-                            "STORAGE_PATH=" + storagePath,
-                            "FFMPEG_PATH=" + Config.get().getFfmpegPath(),
-                            "PO_TOKEN=" + youtube.getOriginToken(),
-                            "VISITOR_DATA=" + youtube.getClientData()
-                    }
-            );
-
-            // Redirect the Node output to the console.
-            var nodeOutput = Laudiolin.nodeProcess.getInputStream();
-            new Thread(() -> {
-                try {
-                    // Read the Node output.
-                    var buffer = new byte[1024];
-                    var length = 0;
-
-                    while ((length = nodeOutput.read(buffer)) != -1) {
-                        // Print the Node output.
-                        Laudiolin.getConsole().printAbove(new String(
-                                Arrays.copyOfRange(buffer, 0, length)));
-                    }
-                } catch (IOException exception) {
-                    Laudiolin.getLogger().error(
-                            "Failed to read Node output.", exception);
-                }
-            }).start();
-
-            return true;
-        } catch (IOException exception) {
-            Laudiolin.getLogger().error("Failed to start Node.", exception);
-            return false;
-        }
+    public static Node getNode() {
+        return NodePool.select();
     }
 
     /**
@@ -1,36 +1,40 @@
 package moe.seikimo.laudiolin;
 
 import com.google.protobuf.GeneratedMessageV3;
-import lombok.SneakyThrows;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
 import moe.seikimo.laudiolin.Messages.*;
+import moe.seikimo.laudiolin.files.StorageManager;
 import moe.seikimo.laudiolin.models.data.Playlist;
 import moe.seikimo.laudiolin.models.data.TrackData;
-import moe.seikimo.laudiolin.objects.Constants;
-import moe.seikimo.laudiolin.utils.RandomUtils;
+import moe.seikimo.laudiolin.utils.ThreadUtils;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class Node extends WebSocketClient {
     private final Logger logger
             = LoggerFactory.getLogger("Node IPC");
 
-    private final Map<Integer, Consumer<byte[]>> listeners = new HashMap<>();
+    /* Retcode -> The request waiting for a response. */
+    private final Map<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    /* Retcode -> The chunked stream receiving frames. */
+    private final Map<Integer, NodeStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRetcode = new AtomicInteger();
 
     /**
      * Creates a websocket for IPC to Node.js
@@ -63,16 +67,31 @@ public final class Node extends WebSocketClient {
         var packetData = new byte[packetLength];
         buffer.get(packetData, 0, packetLength);
 
+        // Check if the packet is a stream frame.
+        var stream = this.streams.get(retcode);
+        if (stream != null) {
+            stream.receive(packetData);
+            return;
+        }
+
         // Handle the packet.
-        var listener = this.listeners.getOrDefault(retcode, null);
-        if (listener != null) listener.accept(packetData);
+        var request = this.pending.remove(retcode);
+        if (request != null) request.complete(packetData);
     }
 
     @Override
     public void onClose(int code, String reason, boolean remote) {
         this.logger.warn("Disconnected from Node because {}. (code {})", reason, code);
 
-        System.exit(code);
+        // Fail all requests which are still waiting.
+        var exception = new IllegalStateException("Node disconnected.");
+        this.pending.values().forEach(request -> request.completeExceptionally(exception));
+        this.pending.clear();
+        this.streams.values().forEach(NodeStream::fail);
+        this.streams.clear();
+
+        // Let the pool recover the worker.
+        NodePool.onDisconnect(this);
     }
 
     @Override
@@ -80,6 +99,13 @@ public final class Node extends WebSocketClient {
         this.logger.warn("An error occurred with Node.", exception);
     }
 
+    /**
+     * @return The amount of requests waiting for a response.
+     */
+    public int getPendingRequests() {
+        return this.pending.size();
+    }
+
     /**
      * Writes a packet to the pipe.
      *
@@ -103,42 +129,92 @@ public final class Node extends WebSocketClient {
     /**
      * Sends a packet to Node.js and expects a response.
      * The response data will be passed to the future for parsing.
+     * If Node doesn't respond in time, the future resolves to an empty response.
+     * Cancelling the future stops waiting for the response.
      *
      * @param sendId The packet ID to send.
      * @param data The packet data to send.
      * @return The future.
      */
-    private byte[] sendExpect(
+    private CompletableFuture<byte[]> sendExpect(
             PacketIds sendId, GeneratedMessageV3.Builder<?> data
     ) {
-        // Generate a random code for receiving the packet.
-        var retcode = RandomUtils.random(0, 10000);
+        // Generate a unique code for receiving the packet.
+        var retcode = this.nextRetcode();
         // Create a future which will be resolved when the packet is received.
-        var future = this.expect(retcode);
-        // Send the packet.
-        this.write(retcode, sendId, data.build().toByteArray());
+        var future = new CompletableFuture<byte[]>();
+        this.pending.put(retcode, future);
+
+        // Remove the request once it completes or times out.
+        var timeout = Config.get().getIpc().getRequestTimeout();
+        future.orTimeout(timeout, TimeUnit.SECONDS)
+                .whenComplete((response, exception) -> this.pending.remove(retcode, future));
 
         try {
-            return future.get(60L, TimeUnit.SECONDS);
-        } catch (InterruptedException | ExecutionException | TimeoutException ignored) {
-            return new byte[0];
+            // Send the packet.
+            this.write(retcode, sendId, data.build().toByteArray());
+        } catch (Exception exception) {
+            future.completeExceptionally(exception);
         }
+
+        // Drop the request if the caller stops waiting on it.
+        return ThreadUtils.link(future.exceptionally(exception -> {
+            this.logger.debug("Node request {} failed: {}", sendId, exception.getMessage());
+            return new byte[0];
+        }), future);
     }
 
     /**
-     * Creates a future which will be resolved when a packet is received.
-     * The packet data will be passed to the future for parsing.
+     * Codes still in use after the counter wraps around are skipped.
      *
-     * @param retcode The packet retcode to listen for.
-     * @return The future.
+     * @return A retcode which isn't used by any waiting request or stream.
      */
-    private CompletableFuture<byte[]> expect(int retcode) {
-        // Prepare a future which will be returned.
-        var future = new CompletableFuture<byte[]>();
-        // Add a listener.
-        this.listeners.put(retcode, future::complete);
+    private int nextRetcode() {
+        int retcode;
+        do {
+            retcode = this.nextRetcode.getAndIncrement() & Integer.MAX_VALUE;
+        } while (this.pending.containsKey(retcode) || this.streams.containsKey(retcode));
+
+        return retcode;
+    }
+
+    /**
+     * Stops routing frames to a chunked stream.
+     *
+     * @param retcode The retcode of the stream.
+     */
+    void closeStream(int retcode) {
+        this.streams.remove(retcode);
+    }
+
+    /**
+     * Parses a response packet.
+     *
+     * @param parser The message parser.
+     * @param data The packet data.
+     * @return The parsed message.
+     */
+    private static <T> T parse(Parser<T> parser, byte[] data) {
+        try {
+            return parser.parseFrom(data);
+        } catch (InvalidProtocolBufferException exception) {
+            throw new CompletionException(exception);
+        }
+    }
 
-        return future;
+    /**
+     * Waits for an asynchronous request to complete.
+     *
+     * @param future The future to wait on.
+     * @return The result of the future.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException cause) throw cause;
+            throw exception;
+        }
     }
 
     /* ---------------------------------------- UTILITY METHODS ---------------------------------------- */
@@ -150,22 +226,34 @@ public final class Node extends WebSocketClient {
      * @param music Whether to search for music.
      * @return The search results.
      */
-    @SneakyThrows
     public List<Track> youtubeSearch(String query, boolean music) {
+        return Node.await(this.youtubeSearchAsync(query, music));
+    }
+
+    /**
+     * Searches YouTube for a video.
+     *
+     * @param query The search query.
+     * @param music Whether to search for music.
+     * @return A future resolving to the search results.
+     */
+    public CompletableFuture<List<Track>> youtubeSearchAsync(String query, boolean music) {
         // Send the packet and expect a response.
-        var data = this.sendExpect(
+        var request = this.sendExpect(
                 PacketIds._YouTubeSearchReq,
                 YouTubeSearchReq.newBuilder()
                         .setQuery(query)
                         .setYoutubeMusic(music));
-        var response = YouTubeSearchRsp.parseFrom(data);
+        return ThreadUtils.link(request.thenApply(data -> {
+            var response = Node.parse(YouTubeSearchRsp.parser(), data);
 
-        // Check if the search was successful.
-        if (!response.getSuccessful()) {
-            this.logger.warn("YouTube search failed. See above for reason.");
-        }
+            // Check if the search was successful.
+            if (!response.getSuccessful()) {
+                this.logger.warn("YouTube search failed. See above for reason.");
+            }
 
-        return response.getResultsList();
+            return response.getResultsList();
+        }), request);
     }
 
     /**
@@ -174,20 +262,39 @@ public final class Node extends WebSocketClient {
      * @param id The YouTube video ID.
      * @return The path to the downloaded video. Returns an empty string if the download failed.
      */
-    @SneakyThrows
     public String youtubeDownload(String id) {
+        return Node.await(this.youtubeDownloadAsync(id));
+    }
+
+    /**
+     * Attempts to download a YouTube video.
+     *
+     * @param id The YouTube video ID.
+     * @return A future resolving to the path of the downloaded video.
+     */
+    public CompletableFuture<String> youtubeDownloadAsync(String id) {
         // Check if the file exists on the local machine.
-        var file = new File(Constants.STORAGE_PATH, id + ".mp3");
-        if (file.exists()) return file.getAbsolutePath();
+        var storage = StorageManager.getBackend();
+        var file = storage.locate(id + ".mp3");
+        if (file.exists()) {
+            return CompletableFuture.completedFuture(file.getAbsolutePath());
+        }
+
+        // Node writes to a partial file, which is committed once finished.
+        try {
+            file = storage.preparePartial(id + ".mp3");
+        } catch (IOException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
 
         // Send the packet and expect a response.
-        var data = this.sendExpect(
+        var request = this.sendExpect(
                 PacketIds._YouTubeDownloadReq,
                 YouTubeDownloadReq.newBuilder()
-                        .setVideoId(id));
-        var response = YouTubeDownloadRsp.parseFrom(data);
-
-        return response.getFilePath();
+                        .setVideoId(id)
+                        .setFilePath(file.getAbsolutePath()));
+        return ThreadUtils.link(request.thenApply(
+                data -> Node.parse(YouTubeDownloadRsp.parser(), data).getFilePath()), request);
     }
 
     /**
@@ -199,19 +306,77 @@ public final class Node extends WebSocketClient {
      * @param end The ending byte.
      * @return The download response.
      */
-    @SneakyThrows
     public YouTubeStreamRsp youtubeStream(
             String id, String quality, int start, int end
+    ) {
+        return Node.await(this.youtubeStreamAsync(id, quality, start, end));
+    }
+
+    /**
+     * Attempts to download a part of a YouTube video.
+     *
+     * @param id The YouTube video ID.
+     * @param quality The quality of the video.
+     * @param start The starting byte.
+     * @param end The ending byte.
+     * @return A future resolving to the download response.
+     */
+    public CompletableFuture<YouTubeStreamRsp> youtubeStreamAsync(
+            String id, String quality, int start, int end
     ) {
         // Send the packet and expect a response.
-        var data = this.sendExpect(
+        var request = this.sendExpect(
                 PacketIds._YouTubeStreamReq,
                 YouTubeStreamReq.newBuilder()
                         .setVideoId(id)
                         .setQuality(quality)
                         .setStart(start)
                         .setEnd(end));
-        return YouTubeStreamRsp.parseFrom(data);
+        return ThreadUtils.link(request.thenApply(
+                data -> Node.parse(YouTubeStreamRsp.parser(), data)), request);
+    }
+
+    /**
+     * Streams a part of a YouTube video in chunks.
+     * Chunks are sent as they are downloaded, limited by the stream window.
+     *
+     * @param id The YouTube video ID.
+     * @param quality The quality of the video.
+     * @param start The starting byte.
+     * @param end The ending byte.
+     * @param contentLength The known length of the stream, or 0 if unknown.
+     * @param mimeType The known format of the stream.
+     * @return The stream of chunks. This should be closed after use.
+     */
+    public NodeStream youtubeStreamChunked(
+            String id, String quality, int start, int end,
+            long contentLength, String mimeType
+    ) {
+        var retcode = this.nextRetcode();
+        var window = Math.max(1, Config.get().getIpc().getStreamWindow());
+
+        // Register the stream before any frame can arrive.
+        var stream = new NodeStream(this, retcode, window);
+        this.streams.put(retcode, stream);
+
+        try {
+            // Send the packet.
+            this.write(retcode, PacketIds._YouTubeStreamChunkedReq,
+                    YouTubeStreamReq.newBuilder()
+                            .setVideoId(id)
+                            .setQuality(quality)
+                            .setStart(start)
+                            .setEnd(end)
+                            .setWindow(window)
+                            .setContentLength((int) contentLength)
+                            .setMimeType(mimeType == null ? "" : mimeType)
+                            .build().toByteArray());
+        } catch (Exception exception) {
+            this.streams.remove(retcode);
+            stream.fail();
+        }
+
+        return stream;
     }
 
     /**
@@ -220,20 +385,30 @@ public final class Node extends WebSocketClient {
      * @param id The video ID.
      * @return The search result.
      */
-    @SneakyThrows
     public Track youtubeFetch(String id) {
+        return Node.await(this.youtubeFetchAsync(id));
+    }
+
+    /**
+     * Performs a YouTube search for a video ID.
+     *
+     * @param id The video ID.
+     * @return A future resolving to the search result.
+     */
+    public CompletableFuture<Track> youtubeFetchAsync(String id) {
         // Send the packet and expect a response.
-        var data = this.sendExpect(
+        var request = this.sendExpect(
                 PacketIds._YouTubeFetchReq,
                 YouTubeFetchReq.newBuilder()
                         .setVideoId(id));
-        var result = YouTubeFetchRsp.parseFrom(data);
-
-        if (!result.getSuccessful()) {
-            throw new RuntimeException("Failed to fetch YouTube video.");
-        }
-
-        return result.getResult();
+        return ThreadUtils.link(request.thenApply(data -> {
+            var result = Node.parse(YouTubeFetchRsp.parser(), data);
+            if (!result.getSuccessful()) {
+                throw new RuntimeException("Failed to fetch YouTube video.");
+            }
+
+            return result.getResult();
+        }), request);
     }
 
     /**
@@ -242,30 +417,40 @@ public final class Node extends WebSocketClient {
      * @param url The playlist URL.
      * @return The playlist.
      */
-    @SneakyThrows
     public Playlist youtubePlaylist(String url) {
+        return Node.await(this.youtubePlaylistAsync(url));
+    }
+
+    /**
+     * Fetches a YouTube playlist.
+     *
+     * @param url The playlist URL.
+     * @return A future resolving to the playlist.
+     */
+    public CompletableFuture<Playlist> youtubePlaylistAsync(String url) {
         // Send the packet and expect a response.
-        var data = this.sendExpect(
+        var request = this.sendExpect(
                 PacketIds._YouTubePlaylistReq,
                 YouTubePlaylistReq.newBuilder()
                         .setPlaylistUrl(url));
-        var result = YouTubePlaylistRsp.parseFrom(data);
-
-        if (!result.getSuccessful()) {
-            throw new RuntimeException("Failed to fetch YouTube playlist.");
-        }
-
-        // Convert the playlist to the native format.
-        var playlist = result.getPlaylist();
-        return new Playlist()
-                .setName(playlist.getName())
-                .setDescription(playlist.getDescription())
-                .setIcon(playlist.getIcon())
-                .setPrivate(playlist.getIsPrivate())
-                .setTracks(new ArrayList<>(
-                        playlist.getTracksList().stream()
-                                .map(TrackData::toTrack)
-                                .toList())
-                );
+        return ThreadUtils.link(request.thenApply(data -> {
+            var result = Node.parse(YouTubePlaylistRsp.parser(), data);
+            if (!result.getSuccessful()) {
+                throw new RuntimeException("Failed to fetch YouTube playlist.");
+            }
+
+            // Convert the playlist to the native format.
+            var playlist = result.getPlaylist();
+            return new Playlist()
+                    .setName(playlist.getName())
+                    .setDescription(playlist.getDescription())
+                    .setIcon(playlist.getIcon())
+                    .setPrivate(playlist.getIsPrivate())
+                    .setTracks(new ArrayList<>(
+                            playlist.getTracksList().stream()
+                                    .map(TrackData::toTrack)
+                                    .toList())
+                    );
+        }), request);
     }
 }
@@ -0,0 +1,277 @@
+package moe.seikimo.laudiolin;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.objects.Constants;
+import moe.seikimo.laudiolin.utils.NetUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public final class NodePool {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Node Pool");
+
+    @Getter private static final List<Worker> workers
+            = new CopyOnWriteArrayList<>();
+
+    /* Runs health checks and recoveries. */
+    private static final Timer timer = new Timer();
+
+    private static boolean spawnProcesses = true;
+    private static volatile boolean stopping = false;
+
+    /**
+     * A Node process and the client connected to it.
+     */
+    public static final class Worker {
+        @Getter private final int index;
+        @Getter private volatile int port;
+        @Getter private volatile Node node;
+        private volatile Process process;
+        private volatile boolean recovering = false;
+
+        private Worker(int index, int port) {
+            this.index = index;
+            this.port = port;
+        }
+
+        /**
+         * @return Whether the worker can accept requests.
+         */
+        public boolean isHealthy() {
+            var node = this.node;
+            return node != null && node.isOpen() &&
+                    (this.process == null || this.process.isAlive());
+        }
+    }
+
+    /**
+     * Starts the Node workers.
+     *
+     * @param spawn Whether the Node processes should be started by the backend.
+     * @param port The port of the first worker.
+     */
+    public static void initialize(boolean spawn, int port) throws URISyntaxException {
+        NodePool.spawnProcesses = spawn;
+
+        // An external Node instance is a single worker.
+        var ipc = Config.get().getIpc();
+        var count = spawn ? Math.max(1, ipc.getWorkers()) : 1;
+        for (var i = 0; i < count; i++) {
+            var worker = new Worker(i, i == 0 ? port : NetUtils.findFreePort());
+            workers.add(worker);
+
+            if (spawn) NodePool.spawn(worker);
+        }
+
+        if (spawn) try {
+            // Wait for the Node instances to start.
+            Thread.sleep(1000);
+        } catch (InterruptedException exception) {
+            logger.error("Failed to wait for Node instances to start.");
+        }
+
+        // Connect to the workers.
+        for (var worker : workers) {
+            NodePool.connect(worker);
+        }
+
+        // Periodically check the health of the workers.
+        var interval = TimeUnit.MILLISECONDS.convert(
+                ipc.getHealthCheckInterval(), TimeUnit.SECONDS);
+        timer.scheduleAtFixedRate(
+                new HealthCheckTask(), interval, interval);
+
+        // Stop the Node processes with the backend.
+        Runtime.getRuntime().addShutdownHook(new Thread(NodePool::shutdown));
+    }
+
+    /**
+     * Selects the worker with the least outstanding requests.
+     *
+     * @return The Node client of the worker.
+     */
+    public static Node select() {
+        var healthy = workers.stream()
+                .filter(Worker::isHealthy)
+                .map(Worker::getNode)
+                .min(Comparator.comparingInt(Node::getPendingRequests));
+        if (healthy.isPresent()) return healthy.get();
+
+        // Fall back to any worker; the request fails if it stays down.
+        return workers.isEmpty() ? null : workers.get(0).getNode();
+    }
+
+    /**
+     * Invoked when a Node client disconnects.
+     *
+     * @param node The client which disconnected.
+     */
+    static void onDisconnect(Node node) {
+        for (var worker : workers) {
+            if (worker.node == node) {
+                NodePool.recover(worker);
+            }
+        }
+    }
+
+    /**
+     * Recovers a worker.
+     * The process is respawned if it died, and the client reconnects.
+     *
+     * @param worker The worker to recover.
+     */
+    private static void recover(Worker worker) {
+        if (stopping) return;
+
+        synchronized (worker) {
+            if (worker.recovering) return;
+            worker.recovering = true;
+        }
+
+        logger.warn("Node worker {} is unhealthy, recovering.", worker.getIndex());
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    // Close the old client.
+                    var node = worker.node;
+                    if (node != null && !node.isClosed()) node.close();
+
+                    // Respawn the process if it died.
+                    var process = worker.process;
+                    if (spawnProcesses && (process == null || !process.isAlive())) {
+                        worker.port = NetUtils.findFreePort();
+                        NodePool.spawn(worker);
+
+                        // Give the process time to start without blocking the timer.
+                        NodePool.reconnect(worker, 1000);
+                        return;
+                    }
+
+                    NodePool.reconnect(worker, 0);
+                } catch (Exception exception) {
+                    logger.warn("Failed to recover Node worker {}.", worker.getIndex(), exception);
+                    worker.recovering = false;
+                }
+            }
+        }, 1000);
+    }
+
+    /**
+     * Connects a new client to a recovering worker.
+     * The worker is no longer recovering afterward.
+     *
+     * @param worker The worker.
+     * @param delay The time (in milliseconds) to wait before connecting.
+     */
+    private static void reconnect(Worker worker, long delay) {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    NodePool.connect(worker);
+                } catch (Exception exception) {
+                    logger.warn("Failed to recover Node worker {}.", worker.getIndex(), exception);
+                } finally {
+                    worker.recovering = false;
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Connects a new client to the worker's process.
+     *
+     * @param worker The worker.
+     */
+    private static void connect(Worker worker) throws URISyntaxException {
+        var node = new Node(worker.getPort());
+        node.setConnectionLostTimeout(
+                Config.get().getIpc().getHealthCheckInterval() * 3);
+
+        worker.node = node;
+        node.connect();
+    }
+
+    /**
+     * Starts a Node process for a worker.
+     *
+     * @param worker The worker.
+     */
+    private static void spawn(Worker worker) {
+        var nodeExecutable = Laudiolin.getArguments()
+                .getOrDefault("node", "node");
+
+        var storagePath = Constants.STORAGE_PATH.getAbsolutePath();
+        var youtube = Config.get().getYoutube();
+
+        try {
+            // Execute the Node instance.
+            var runtime = Runtime.getRuntime();
+            var process = worker.process = runtime.exec(
+                    nodeExecutable + " index.js",
+                    new String[] {
+                            "PORT=" + worker.getPort(),
+                            "STORAGE_PATH=" + storagePath,
+                            "FFMPEG_PATH=" + Config.get().getFfmpegPath(),
+                            "PO_TOKEN=" + youtube.getOriginToken(),
+                            "VISITOR_DATA=" + youtube.getClientData()
+                    }
+            );
+
+            // Redirect the Node output to the console.
+            var nodeOutput = process.getInputStream();
+            new Thread(() -> {
+                try {
+                    // Read the Node output.
+                    var buffer = new byte[1024];
+                    var length = 0;
+
+                    while ((length = nodeOutput.read(buffer)) != -1) {
+                        // Print the Node output.
+                        Laudiolin.getConsole().printAbove(new String(
+                                Arrays.copyOfRange(buffer, 0, length)));
+                    }
+                } catch (IOException exception) {
+                    logger.error("Failed to read Node output.", exception);
+                }
+            }).start();
+        } catch (IOException exception) {
+            logger.error("Failed to start Node.", exception);
+        }
+    }
+
+    /**
+     * Stops all Node processes.
+     */
+    private static void shutdown() {
+        NodePool.stopping = true;
+
+        for (var worker : workers) {
+            var process = worker.process;
+            if (process != null) process.destroy();
+        }
+    }
+
+    /** Task used for checking the health of workers. */
+    static final class HealthCheckTask extends TimerTask {
+        @Override
+        public void run() {
+            for (var worker : workers) {
+                if (!worker.recovering && !worker.isHealthy()) {
+                    NodePool.recover(worker);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package moe.seikimo.laudiolin;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Getter;
+import moe.seikimo.laudiolin.Messages.PacketIds;
+import moe.seikimo.laudiolin.Messages.YouTubeStreamAck;
+import moe.seikimo.laudiolin.Messages.YouTubeStreamChunk;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chunked stream of data from Node.
+ * Node may only send as many unacknowledged chunks as the window allows.
+ */
+public final class NodeStream implements AutoCloseable {
+    private static final YouTubeStreamChunk FAILED = YouTubeStreamChunk.newBuilder()
+            .setEnd(true)
+            .setSuccessful(false)
+            .build();
+
+    private final Node node;
+    private final int retcode;
+    private final BlockingQueue<YouTubeStreamChunk> frames;
+
+    private volatile boolean finished = false;
+    @Getter private volatile long contentLength = 0;
+    @Getter private volatile String mimeType = "";
+
+    /**
+     * Creates a new chunked stream.
+     *
+     * @param node The Node client receiving the frames.
+     * @param retcode The retcode of the request.
+     * @param window The amount of chunks which may be unacknowledged.
+     */
+    NodeStream(Node node, int retcode, int window) {
+        this.node = node;
+        this.retcode = retcode;
+        // The window is the upper bound, plus the end frame.
+        this.frames = new ArrayBlockingQueue<>(window + 1);
+    }
+
+    /**
+     * Invoked by the IPC thread when a frame is received.
+     *
+     * @param data The frame data.
+     */
+    void receive(byte[] data) {
+        try {
+            var chunk = YouTubeStreamChunk.parseFrom(data);
+            if (!this.frames.offer(chunk)) {
+                // Node ignored the window.
+                this.fail();
+            }
+        } catch (InvalidProtocolBufferException ignored) {
+            this.fail();
+        }
+    }
+
+    /**
+     * Ends the stream unsuccessfully.
+     */
+    void fail() {
+        if (!this.frames.offer(FAILED)) {
+            this.frames.clear();
+            this.frames.offer(FAILED);
+        }
+    }
+
+    /**
+     * Waits for the next chunk of the stream.
+     * Taking a chunk acknowledges it, allowing Node to send another.
+     *
+     * @return The chunk, or null if the stream ended.
+     */
+    public YouTubeStreamChunk next() throws IOException {
+        if (this.finished) return null;
+
+        YouTubeStreamChunk chunk;
+        try {
+            var timeout = Config.get().getIpc().getRequestTimeout();
+            chunk = this.frames.poll(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            throw new IOException("Interrupted while waiting for stream data.", exception);
+        }
+
+        if (chunk == null) {
+            throw new IOException("Timed out waiting for stream data.");
+        }
+
+        if (chunk.getContentLength() > 0) {
+            this.contentLength = chunk.getContentLength();
+        }
+        if (!chunk.getMimeType().isEmpty()) {
+            this.mimeType = chunk.getMimeType();
+        }
+
+        if (chunk.getEnd()) {
+            this.finished = true;
+            this.node.closeStream(this.retcode);
+
+            if (!chunk.getSuccessful()) {
+                throw new IOException("Node failed to stream the video.");
+            }
+            return null;
+        }
+
+        // Acknowledge the chunk.
+        this.acknowledge(chunk.getSequence(), false);
+
+        return chunk;
+    }
+
+    /**
+     * Cancels the stream if it hasn't finished.
+     */
+    @Override
+    public void close() {
+        if (this.finished) return;
+
+        this.finished = true;
+        this.node.closeStream(this.retcode);
+        this.acknowledge(0, true);
+    }
+
+    /**
+     * Sends an acknowledgement to Node.
+     *
+     * @param sequence The sequence number of the chunk.
+     * @param cancel Whether the stream should be cancelled.
+     */
+    private void acknowledge(int sequence, boolean cancel) {
+        try {
+            this.node.write(this.retcode, PacketIds._YouTubeStreamAck,
+                    YouTubeStreamAck.newBuilder()
+                            .setSequence(sequence)
+                            .setCancel(cancel)
+                            .build().toByteArray());
+        } catch (Exception ignored) {
+            // The connection is gone; the stream fails on its own.
+        }
+    }
+}
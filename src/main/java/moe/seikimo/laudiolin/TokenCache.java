@@ -0,0 +1,183 @@
+package moe.seikimo.laudiolin;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.utils.AccountUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class TokenCache {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Token Cache");
+
+    /* Token -> The user the token belongs to. */
+    private static final Map<String, Entry> cache
+            = new ConcurrentHashMap<>();
+    /* Token -> The account lookup which all callers wait on. */
+    private static final Map<String, CompletableFuture<String>> loading
+            = new ConcurrentHashMap<>();
+
+    @Getter private static final AtomicLong hits = new AtomicLong();
+    @Getter private static final AtomicLong misses = new AtomicLong();
+    @Getter private static final AtomicLong loads = new AtomicLong();
+
+    /**
+     * A resolved token.
+     *
+     * @param userId The ID of the token's user, or null if the token is invalid.
+     * @param expiresAt The time (in milliseconds) the entry expires.
+     */
+    record Entry(String userId, long expiresAt) {
+        /**
+         * @return Whether the entry should no longer be used.
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= this.expiresAt;
+        }
+    }
+
+    /**
+     * Schedules the removal of expired tokens.
+     */
+    public static void initialize() {
+        var interval = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+        new Timer().scheduleAtFixedRate(
+                new PurgeTask(), interval, interval);
+    }
+
+    /**
+     * Resolves a token to the ID of its user.
+     * Concurrent calls for the same token share a single account lookup.
+     *
+     * @param token The token.
+     * @return The user ID, or null if the token is invalid.
+     */
+    @Nullable
+    public static String resolve(String token) {
+        var entry = cache.get(token);
+        if (entry != null && !entry.isExpired()) {
+            hits.incrementAndGet();
+            return entry.userId();
+        }
+        misses.incrementAndGet();
+
+        // Join an existing lookup.
+        var future = new CompletableFuture<String>();
+        var existing = loading.putIfAbsent(token, future);
+        if (existing != null) return existing.join();
+
+        try {
+            future.complete(TokenCache.load(token));
+        } catch (Throwable throwable) {
+            future.complete(null);
+        } finally {
+            loading.remove(token, future);
+        }
+
+        return future.join();
+    }
+
+    /**
+     * Caches the user of a token.
+     * Used when the token was verified elsewhere.
+     *
+     * @param token The token.
+     * @param userId The ID of the token's user.
+     */
+    public static void put(String token, String userId) {
+        var ttl = Config.get().getAccounts().getTokenTtl();
+        TokenCache.store(token, userId, ttl);
+    }
+
+    /**
+     * Removes a token from the cache.
+     *
+     * @param token The token.
+     */
+    public static void invalidate(String token) {
+        cache.remove(token);
+    }
+
+    /**
+     * @return The amount of cached tokens.
+     */
+    public static int getSize() {
+        return cache.size();
+    }
+
+    /**
+     * Looks up the user of a token with the account API.
+     * Invalid tokens are cached for a shorter time; failed lookups aren't cached.
+     *
+     * @param token The token.
+     * @return The user ID, or null if the token is invalid.
+     */
+    private static String load(String token) {
+        loads.incrementAndGet();
+
+        var accounts = Config.get().getAccounts();
+        try {
+            var accountInfo = AccountUtils.fetchAccount(token);
+            if (accountInfo == null) {
+                TokenCache.store(token, null, accounts.getInvalidTokenTtl());
+                return null;
+            }
+
+            var userId = accountInfo.get("id").getAsString();
+            TokenCache.store(token, userId, accounts.getTokenTtl());
+            return userId;
+        } catch (IOException exception) {
+            logger.debug("Unable to look up a token.", exception);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a token to the cache.
+     * The entries closest to expiring are removed if the cache is full.
+     *
+     * @param token The token.
+     * @param userId The ID of the token's user, or null if the token is invalid.
+     * @param ttl The time (in seconds) the entry is valid for.
+     */
+    private static void store(String token, String userId, long ttl) {
+        if (ttl <= 0) return;
+
+        var maxTokens = Config.get().getAccounts().getMaxTokens();
+        if (maxTokens > 0 && cache.size() >= maxTokens) {
+            cache.values().removeIf(Entry::isExpired);
+
+            // Make room for a batch of tokens at once.
+            var excess = cache.size() - maxTokens + 1;
+            if (excess > 0) {
+                cache.entrySet().stream()
+                        .sorted(Comparator.comparingLong(e -> e.getValue().expiresAt()))
+                        .limit(excess + maxTokens / 10)
+                        .map(Map.Entry::getKey)
+                        .toList()
+                        .forEach(cache::remove);
+            }
+        }
+
+        cache.put(token, new Entry(userId, System.currentTimeMillis() +
+                TimeUnit.MILLISECONDS.convert(ttl, TimeUnit.SECONDS)));
+    }
+
+    /** Task used for removing expired tokens. */
+    static final class PurgeTask extends TimerTask {
+        @Override
+        public void run() {
+            cache.values().removeIf(Entry::isExpired);
+        }
+    }
+}
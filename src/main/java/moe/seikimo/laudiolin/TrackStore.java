@@ -0,0 +1,653 @@
+package moe.seikimo.laudiolin;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import lombok.Getter;
+import moe.seikimo.laudiolin.models.data.Playlist;
+import moe.seikimo.laudiolin.models.data.TrackData;
+import moe.seikimo.laudiolin.models.data.User;
+import moe.seikimo.laudiolin.utils.ThreadUtils;
+import moe.seikimo.laudiolin.utils.TrackUtils;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores every distinct track once, in the 'tracks' collection.
+ * Users and playlists only store the IDs of their tracks.
+ */
+public final class TrackStore {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Track Store");
+
+    /* The ID of the repair's state in the migrations collection. */
+    private static final String REPAIR_ID = "track-urls";
+
+    /* Track ID -> The cached track document. */
+    private static final Map<String, Entry> cache
+            = new ConcurrentHashMap<>();
+
+    @Getter private static final AtomicLong hits = new AtomicLong();
+    @Getter private static final AtomicLong misses = new AtomicLong();
+    @Getter private static final AtomicLong loads = new AtomicLong();
+    @Getter private static final AtomicLong writes = new AtomicLong();
+
+    /* Whether a repair is running, and whether it should start over after. */
+    private static final AtomicBoolean repairing = new AtomicBoolean(false);
+    private static volatile boolean repairPending = false;
+
+    /**
+     * A cached track.
+     *
+     * @param track The track, as it is embedded in a document.
+     * @param expiresAt The time (in milliseconds) the entry expires.
+     */
+    record Entry(Document track, long expiresAt) {
+        /**
+         * @return Whether the entry should no longer be used.
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= this.expiresAt;
+        }
+    }
+
+    /**
+     * Schedules the removal of expired tracks.
+     * Embedded tracks are migrated in the background if enabled,
+     * and tracks with old URLs are repaired.
+     */
+    public static void initialize() {
+        var interval = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+        new Timer().scheduleAtFixedRate(
+                new PurgeTask(), interval, interval);
+
+        new Thread(() -> {
+            if (Config.get().getDatabase().isMigrateTracks()) {
+                TrackStore.migrate();
+            }
+            TrackStore.startRepair();
+        }).start();
+    }
+
+    /**
+     * Replaces the embedded tracks of a document with their IDs.
+     * The tracks are written to the store first.
+     * Used before a document is written.
+     *
+     * @param document The document.
+     * @param fields The fields holding lists of tracks.
+     */
+    public static void normalize(Document document, String... fields) {
+        var tracks = new ArrayList<Document>();
+        for (var field : fields) {
+            if (!(document.get(field) instanceof List<?> list)) continue;
+            document.put(field, TrackStore.references(list, tracks));
+        }
+
+        TrackStore.store(tracks);
+    }
+
+    /**
+     * Replaces the track IDs of a document with the tracks.
+     * All fields are resolved with a single lookup.
+     * Used before a document is read.
+     *
+     * @param document The document.
+     * @param fields The fields holding lists of tracks.
+     * @return Whether the document still embeds tracks.
+     */
+    public static boolean expand(Document document, String... fields) {
+        // Collect the IDs of all fields.
+        var ids = new HashSet<String>();
+        var embedded = false;
+        for (var field : fields) {
+            if (!(document.get(field) instanceof List<?> list)) continue;
+            for (var element : list) {
+                if (element instanceof String id) ids.add(id);
+                else if (element instanceof Document) embedded = true;
+            }
+        }
+        if (ids.isEmpty()) return embedded;
+
+        var tracks = TrackStore.resolve(ids);
+        for (var field : fields) {
+            if (!(document.get(field) instanceof List<?> list)) continue;
+
+            var expanded = new ArrayList<>(list.size());
+            for (var element : list) {
+                if (!(element instanceof String id)) {
+                    expanded.add(element);
+                    continue;
+                }
+
+                var track = tracks.get(id);
+                if (track == null) {
+                    // Keep the reference, so the list is saved unchanged.
+                    logger.warn("Track {} is referenced but not stored.", id);
+                    expanded.add(new Document("id", id));
+                    continue;
+                }
+
+                // Loading the track may change the document.
+                expanded.add(new Document(track));
+            }
+            document.put(field, expanded);
+        }
+
+        return embedded;
+    }
+
+    /**
+     * Fetches tracks by their IDs.
+     * Tracks which aren't cached are loaded with one query.
+     *
+     * @param ids The IDs of the tracks.
+     * @return Track ID -> The track, as it is embedded in a document.
+     */
+    public static Map<String, Document> resolve(Collection<String> ids) {
+        var tracks = new HashMap<String, Document>();
+        var missing = new HashSet<String>();
+        for (var id : ids) {
+            var entry = cache.get(id);
+            if (entry != null && !entry.isExpired()) {
+                tracks.put(id, entry.track());
+            } else {
+                missing.add(id);
+            }
+        }
+
+        hits.addAndGet(tracks.size());
+        if (missing.isEmpty()) return tracks;
+        misses.addAndGet(missing.size());
+        loads.incrementAndGet();
+
+        for (var document : TrackStore.collection().find(Filters.in("_id", missing))) {
+            var id = document.getString("_id");
+            document.remove("_id");
+
+            var track = new Document("id", id);
+            track.putAll(document);
+            tracks.put(id, track);
+            TrackStore.cache(id, track);
+        }
+
+        return tracks;
+    }
+
+    /**
+     * Writes a track to the store, unless it is stored already.
+     * Used when a track is referenced without a full write.
+     *
+     * @param track The track.
+     */
+    public static void put(TrackData track) {
+        TrackStore.putAll(List.of(track));
+    }
+
+    /**
+     * Writes tracks to the store, unless they are stored already.
+     * Used when tracks are referenced without a full write.
+     *
+     * @param tracks The tracks.
+     */
+    public static void putAll(Collection<TrackData> tracks) {
+        TrackStore.store(tracks.stream()
+                .filter(Objects::nonNull)
+                .map(TrackStore::toDocument)
+                .toList());
+    }
+
+    /**
+     * Moves the embedded tracks of all users and playlists into the store.
+     * Documents which change while being migrated are skipped.
+     */
+    public static void migrate() {
+        try {
+            var datastore = Laudiolin.getDatastore();
+            var migrated = TrackStore.migrate(datastore
+                    .getCollection(Playlist.class)
+                    .withDocumentClass(Document.class), "tracks");
+            migrated += TrackStore.migrate(datastore
+                    .getCollection(User.class)
+                    .withDocumentClass(Document.class), "likedSongs", "recentlyPlayed");
+
+            if (migrated > 0) {
+                logger.info("Migrated {} documents to the tracks collection.", migrated);
+            }
+        } catch (Exception exception) {
+            logger.warn("Failed to migrate embedded tracks.", exception);
+        }
+    }
+
+    /**
+     * Repairs all tracks with URLs of an old backend, even if a repair finished.
+     * Used when tracks with old URLs are added to the store.
+     */
+    public static void requestRepair() {
+        try {
+            TrackStore.saveProgress(TrackStore.migrations(), null, false);
+        } catch (Exception exception) {
+            logger.warn("Failed to reset the track repair.", exception);
+        }
+
+        repairPending = true;
+        TrackStore.startRepair();
+    }
+
+    /**
+     * Starts repairing tracks in the background, unless a repair is running.
+     * A running repair starts over once it finishes if one was requested.
+     */
+    private static void startRepair() {
+        if (!repairing.compareAndSet(false, true)) return;
+
+        new Thread(() -> {
+            try {
+                do {
+                    repairPending = false;
+                    TrackStore.repair();
+
+                    // The repair overwrote the reset progress.
+                    if (repairPending) {
+                        TrackStore.saveProgress(TrackStore.migrations(), null, false);
+                    }
+                } while (repairPending);
+            } catch (Exception exception) {
+                logger.warn("Failed to repair tracks with old URLs.", exception);
+            } finally {
+                repairing.set(false);
+            }
+
+            // A repair may have been requested while finishing.
+            if (repairPending) TrackStore.startRepair();
+        }).start();
+    }
+
+    /**
+     * Looks up the stored tracks which have URLs of an old backend.
+     * Lookups are made in parallel at a limited rate, and the tracks
+     * are rewritten in batches. An interrupted repair resumes after the
+     * last written batch; a finished repair only runs again when requested.
+     */
+    private static void repair() {
+        var progress = TrackStore.migrations();
+        var state = progress.find(Filters.eq("_id", REPAIR_ID)).first();
+        if (state != null && state.getBoolean("completed", false)) return;
+        var after = state == null ? null : state.getString("after");
+
+        var database = Config.get().getDatabase();
+        var batchSize = Math.max(1, database.getMigrationBatchSize());
+        var interval = TimeUnit.NANOSECONDS.convert(1, TimeUnit.SECONDS) /
+                Math.max(1, database.getRepairRate());
+        var next = new AtomicLong();
+
+        var repaired = 0;
+        var failed = 0;
+        var executor = ThreadUtils.newExecutor(Math.max(1, database.getRepairThreads()));
+        try {
+            var legacy = Filters.or(
+                    Filters.regex("icon", TrackUtils.LEGACY_ICON),
+                    Filters.regex("url", TrackUtils.LEGACY_URL));
+            while (true) {
+                var filter = after == null ? legacy :
+                        Filters.and(Filters.gt("_id", after), legacy);
+                var batch = TrackStore.collection().find(filter)
+                        .sort(Sorts.ascending("_id"))
+                        .limit(batchSize)
+                        .into(new ArrayList<>());
+                if (batch.isEmpty()) break;
+
+                // Look up the tracks in parallel.
+                var lookups = new ArrayList<Future<TrackData>>();
+                for (var document : batch) {
+                    var id = document.getString("_id");
+                    lookups.add(executor.submit(() -> {
+                        TrackStore.pace(next, interval);
+                        return TrackUtils.lookup(id);
+                    }));
+                }
+
+                var updates = new ArrayList<WriteModel<Document>>();
+                for (var i = 0; i < batch.size(); i++) {
+                    var document = batch.get(i);
+                    var id = document.getString("_id");
+
+                    TrackData track = null;
+                    try {
+                        track = lookups.get(i).get();
+                    } catch (ExecutionException exception) {
+                        logger.debug("Unable to look up track {}.", id, exception.getCause());
+                    }
+                    if (track == null) {
+                        failed++;
+                        continue;
+                    }
+
+                    // Only replace the old URLs.
+                    var changes = new ArrayList<Bson>();
+                    if (TrackUtils.isLegacyIcon(document.getString("icon"))) {
+                        changes.add(Updates.set("icon", track.getIcon()));
+                    }
+                    if (TrackUtils.isLegacyUrl(document.getString("url"))) {
+                        changes.add(Updates.set("url", track.getUrl()));
+                    }
+                    updates.add(new UpdateOneModel<>(
+                            Filters.eq("_id", id), Updates.combine(changes)));
+                }
+
+                if (!updates.isEmpty()) {
+                    TrackStore.collection().bulkWrite(updates,
+                            new BulkWriteOptions().ordered(false));
+                    repaired += updates.size();
+                }
+                batch.forEach(document -> cache.remove(document.getString("_id")));
+
+                // Remember where to continue from.
+                after = batch.get(batch.size() - 1).getString("_id");
+                TrackStore.saveProgress(progress, after, false);
+            }
+
+            TrackStore.saveProgress(progress, after, true);
+            logger.info("Repaired {} tracks with old URLs ({} could not be looked up).",
+                    repaired, failed);
+        } catch (InterruptedException ignored) {
+            logger.info("Track repair was interrupted after {} tracks.", repaired);
+        } catch (Exception exception) {
+            logger.warn("Failed to repair tracks with old URLs.", exception);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The amount of cached tracks.
+     */
+    public static int getSize() {
+        return cache.size();
+    }
+
+    /**
+     * Moves the embedded tracks of a collection into the store.
+     *
+     * @param collection The collection.
+     * @param fields The fields holding lists of tracks.
+     * @return The amount of documents migrated.
+     */
+    private static int migrate(MongoCollection<Document> collection, String... fields) {
+        var batchSize = Math.max(1, Config.get().getDatabase().getMigrationBatchSize());
+
+        // Find the documents with embedded tracks.
+        var filter = Filters.or(Arrays.stream(fields)
+                .map(field -> Filters.type(field, BsonType.DOCUMENT))
+                .toList());
+
+        var migrated = 0;
+        var tracks = new ArrayList<Document>();
+        var updates = new ArrayList<WriteModel<Document>>();
+        for (var document : collection.find(filter)
+                .projection(Projections.include(fields))
+                .batchSize(batchSize)) {
+            var conditions = new ArrayList<Bson>();
+            var changes = new ArrayList<Bson>();
+            conditions.add(Filters.eq("_id", document.get("_id")));
+
+            for (var field : fields) {
+                if (!(document.get(field) instanceof List<?> list)) continue;
+
+                // Only replace the list if it wasn't changed since it was read.
+                conditions.add(Filters.eq(field, list));
+                changes.add(Updates.set(field, TrackStore.references(list, tracks)));
+            }
+            updates.add(new UpdateOneModel<>(
+                    Filters.and(conditions), Updates.combine(changes)));
+
+            if (updates.size() >= batchSize) {
+                migrated += TrackStore.write(collection, tracks, updates);
+            }
+        }
+
+        return migrated + TrackStore.write(collection, tracks, updates);
+    }
+
+    /**
+     * Writes a batch of migrated documents.
+     * The referenced tracks are stored first.
+     *
+     * @param collection The collection of the documents.
+     * @param tracks The tracks referenced by the documents.
+     * @param updates The updates to the documents.
+     * @return The amount of documents changed.
+     */
+    private static int write(
+            MongoCollection<Document> collection,
+            List<Document> tracks, List<WriteModel<Document>> updates
+    ) {
+        if (updates.isEmpty()) return 0;
+
+        TrackStore.store(tracks);
+        var result = collection.bulkWrite(updates,
+                new BulkWriteOptions().ordered(false));
+
+        tracks.clear();
+        updates.clear();
+
+        return result.getModifiedCount();
+    }
+
+    /**
+     * Converts a list of tracks to a list of track IDs.
+     * Elements which are already IDs are kept, as are tracks without an ID.
+     *
+     * @param list The list of tracks.
+     * @param tracks The list to add the embedded tracks to.
+     * @return The track IDs, in the same order as the tracks.
+     */
+    private static List<Object> references(List<?> list, List<Document> tracks) {
+        var ids = new ArrayList<>(list.size());
+        for (var element : list) {
+            if (!(element instanceof Document track)) {
+                ids.add(element);
+            } else if (!(track.get("id") instanceof String id)) {
+                // The track can't be referenced; keep it embedded.
+                logger.warn("Unable to reference a track without an ID.");
+                ids.add(track);
+            } else {
+                ids.add(id);
+
+                // Tracks which weren't stored are only referenced.
+                if (!TrackStore.isStub(track)) tracks.add(track);
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * @param track The track, as it is embedded in a document.
+     * @return Whether the track only holds the ID of a track which isn't stored.
+     */
+    private static boolean isStub(Document track) {
+        return track.keySet().stream()
+                .allMatch(key -> key.equals("id") || key.equals("_t"));
+    }
+
+    /**
+     * Writes tracks which aren't stored yet to the collection.
+     * Stored tracks are shared by all documents, so they are never replaced.
+     * Cached tracks are known to be stored and aren't written again.
+     *
+     * @param tracks The tracks, as they are embedded in a document.
+     */
+    private static void store(List<Document> tracks) {
+        // The first copy of a track is kept.
+        var changed = new LinkedHashMap<String, Document>();
+        for (var track : tracks) {
+            var copy = new Document(track);
+            copy.remove("_t");
+
+            var id = copy.getString("id");
+            var entry = cache.get(id);
+            if (entry != null && !entry.isExpired()) continue;
+
+            changed.putIfAbsent(id, copy);
+        }
+        if (changed.isEmpty()) return;
+
+        var models = new ArrayList<WriteModel<Document>>();
+        var copies = new ArrayList<Document>();
+        for (var track : changed.values()) {
+            var id = track.getString("id");
+            var document = new Document();
+            track.forEach((key, value) -> {
+                if (!key.equals("id")) document.put(key, value);
+            });
+
+            models.add(new UpdateOneModel<>(Filters.eq("_id", id),
+                    Updates.setOnInsert(document),
+                    new UpdateOptions().upsert(true)));
+            copies.add(track);
+        }
+
+        var result = TrackStore.collection().bulkWrite(models,
+                new BulkWriteOptions().ordered(false));
+        writes.addAndGet(models.size());
+
+        // Only inserted copies are known to match the store.
+        var repair = false;
+        for (var upsert : result.getUpserts()) {
+            var track = copies.get(upsert.getIndex());
+            TrackStore.cache(track.getString("id"), track);
+
+            // New tracks with old URLs need to be repaired.
+            repair |= TrackUtils.isLegacyIcon(track.getString("icon")) ||
+                    TrackUtils.isLegacyUrl(track.getString("url"));
+        }
+        if (repair) TrackStore.requestRepair();
+    }
+
+    /**
+     * Waits until a lookup may be made.
+     *
+     * @param next The time (in nanoseconds) the next lookup may be made.
+     * @param interval The time (in nanoseconds) between lookups.
+     */
+    private static void pace(AtomicLong next, long interval) throws InterruptedException {
+        var now = System.nanoTime();
+        var slot = Math.max(now, next.getAndAccumulate(now,
+                (previous, time) -> Math.max(previous, time) + interval));
+
+        TimeUnit.NANOSECONDS.sleep(slot - now);
+    }
+
+    /**
+     * Records the progress of the repair.
+     *
+     * @param progress The collection of migration states.
+     * @param after The ID of the last track which was repaired.
+     * @param completed Whether all tracks were repaired.
+     */
+    private static void saveProgress(
+            MongoCollection<Document> progress,
+            String after, boolean completed
+    ) {
+        progress.replaceOne(Filters.eq("_id", REPAIR_ID),
+                new Document("_id", REPAIR_ID)
+                        .append("after", after)
+                        .append("completed", completed),
+                new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * @param track The track.
+     * @return The track, as it is embedded in a document.
+     */
+    private static Document toDocument(TrackData track) {
+        return new Document("id", track.getId())
+                .append("title", track.getTitle())
+                .append("artist", track.getArtist())
+                .append("icon", track.getIcon())
+                .append("url", track.getUrl())
+                .append("duration", track.getDuration())
+                .append("local", track.isLocal());
+    }
+
+    /**
+     * Adds a track to the cache.
+     * The tracks closest to expiring are removed if the cache is full.
+     *
+     * @param id The ID of the track.
+     * @param track The track, as it is embedded in a document.
+     */
+    private static void cache(String id, Document track) {
+        var database = Config.get().getDatabase();
+        var maxTracks = database.getMaxTracks();
+        if (maxTracks > 0 && cache.size() >= maxTracks) {
+            cache.values().removeIf(Entry::isExpired);
+
+            // Make room for a batch of tracks at once.
+            var excess = cache.size() - maxTracks + 1;
+            if (excess > 0) {
+                cache.entrySet().stream()
+                        .sorted(Comparator.comparingLong(e -> e.getValue().expiresAt()))
+                        .limit(excess + maxTracks / 10)
+                        .map(Map.Entry::getKey)
+                        .toList()
+                        .forEach(cache::remove);
+            }
+        }
+
+        cache.put(id, new Entry(track, System.currentTimeMillis() +
+                TimeUnit.MILLISECONDS.convert(database.getTrackCacheTtl(), TimeUnit.SECONDS)));
+    }
+
+    /**
+     * @return The collection of tracks.
+     */
+    private static MongoCollection<Document> collection() {
+        return Laudiolin.getDatastore().getDatabase().getCollection("tracks");
+    }
+
+    /**
+     * @return The collection of migration states.
+     */
+    private static MongoCollection<Document> migrations() {
+        return Laudiolin.getDatastore().getDatabase().getCollection("migrations");
+    }
+
+    /** Task used for removing expired tracks. */
+    static final class PurgeTask extends TimerTask {
+        @Override
+        public void run() {
+            cache.values().removeIf(Entry::isExpired);
+        }
+    }
+}
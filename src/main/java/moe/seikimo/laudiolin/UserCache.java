@@ -0,0 +1,246 @@
+package moe.seikimo.laudiolin;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import lombok.Getter;
+import moe.seikimo.laudiolin.models.data.TrackData;
+import moe.seikimo.laudiolin.models.data.User;
+import moe.seikimo.laudiolin.utils.DatabaseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class UserCache {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("User Cache");
+
+    /* User ID -> The cached user. */
+    private static final Map<String, Entry> cache
+            = new ConcurrentHashMap<>();
+    /* User ID -> The user whose recently played tracks haven't been written. */
+    private static final Map<String, User> pendingRecents
+            = new ConcurrentHashMap<>();
+
+    @Getter private static final AtomicLong hits = new AtomicLong();
+    @Getter private static final AtomicLong misses = new AtomicLong();
+    @Getter private static final AtomicLong writes = new AtomicLong();
+
+    /**
+     * A cached user.
+     *
+     * @param user The user.
+     * @param expiresAt The time (in milliseconds) the entry expires.
+     */
+    record Entry(User user, long expiresAt) {
+        /**
+         * @return Whether the entry should no longer be used.
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= this.expiresAt;
+        }
+    }
+
+    /**
+     * Schedules the write-behind of user changes.
+     * Pending changes are also written when the server stops.
+     */
+    public static void initialize() {
+        var interval = TimeUnit.MILLISECONDS.convert(
+                Math.max(1, Config.get().getAccounts().getWriteBehindInterval()),
+                TimeUnit.SECONDS);
+        new Timer().scheduleAtFixedRate(
+                new FlushTask(), interval, interval);
+
+        // Periodically drop expired users.
+        var purgeInterval = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+        new Timer().scheduleAtFixedRate(
+                new PurgeTask(), purgeInterval, purgeInterval);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(UserCache::flush));
+    }
+
+    /**
+     * Fetches a user by their ID.
+     * The user is loaded from the database if it isn't cached.
+     *
+     * @param userId The ID of the user.
+     * @return The user, or null if not found.
+     */
+    @Nullable
+    public static User get(String userId) {
+        if (userId == null) return null;
+
+        var entry = cache.get(userId);
+        if (entry != null && !entry.isExpired()) {
+            hits.incrementAndGet();
+            return entry.user();
+        }
+        misses.incrementAndGet();
+
+        // The database copy is missing changes which weren't written.
+        var user = pendingRecents.get(userId);
+        if (user == null) {
+            user = DatabaseUtils.fetch(User.class, "_id", userId);
+            if (user == null) return null;
+        }
+
+        // Share one instance between concurrent loads.
+        UserCache.evict();
+        var loaded = UserCache.create(user);
+        return cache.merge(userId, loaded, (existing, created) ->
+                existing.isExpired() ? created : existing).user();
+    }
+
+    /**
+     * Caches a user which was written to the database.
+     *
+     * @param user The user.
+     */
+    public static void put(User user) {
+        if (user.getUserId() == null) return;
+
+        // The full write includes the pending changes.
+        pendingRecents.remove(user.getUserId(), user);
+
+        UserCache.evict();
+        cache.put(user.getUserId(), UserCache.create(user));
+    }
+
+    /**
+     * Removes a user from the cache.
+     *
+     * @param userId The ID of the user.
+     */
+    public static void invalidate(String userId) {
+        cache.remove(userId);
+        pendingRecents.remove(userId);
+    }
+
+    /**
+     * Queues the write of a user's recently played tracks.
+     * Rapid changes are coalesced into a single write.
+     *
+     * @param user The user.
+     */
+    public static void saveRecents(User user) {
+        if (user.getUserId() == null) return;
+
+        pendingRecents.put(user.getUserId(), user);
+    }
+
+    /**
+     * Writes all pending changes to the database in one batch.
+     */
+    public static void flush() {
+        if (pendingRecents.isEmpty()) return;
+
+        // Take the pending changes.
+        var pending = new HashMap<String, User>();
+        for (var userId : new ArrayList<>(pendingRecents.keySet())) {
+            var user = pendingRecents.remove(userId);
+            if (user != null) pending.put(userId, user);
+        }
+
+        var updates = new ArrayList<WriteModel<User>>();
+        var tracks = new ArrayList<TrackData>();
+        for (var entry : pending.entrySet()) {
+            var recents = new ArrayList<>(entry.getValue().getRecentlyPlayed());
+            tracks.addAll(recents);
+
+            // Only the IDs of the tracks are stored.
+            updates.add(new UpdateOneModel<>(
+                    Filters.eq("_id", entry.getKey()),
+                    Updates.set("recentlyPlayed", recents.stream()
+                            .filter(Objects::nonNull)
+                            .map(TrackData::getId)
+                            .toList())));
+        }
+
+        try {
+            TrackStore.putAll(tracks);
+            Laudiolin.getDatastore().getCollection(User.class)
+                    .bulkWrite(updates);
+            writes.addAndGet(updates.size());
+        } catch (Exception exception) {
+            logger.warn("Failed to write {} users.", updates.size(), exception);
+
+            // Retry the writes on the next flush.
+            pending.forEach(pendingRecents::putIfAbsent);
+        }
+    }
+
+    /**
+     * @return The amount of cached users.
+     */
+    public static int getSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return The amount of users with changes waiting to be written.
+     */
+    public static int getPending() {
+        return pendingRecents.size();
+    }
+
+    /**
+     * @param user The user to cache.
+     * @return A new cache entry for the user.
+     */
+    private static Entry create(User user) {
+        var ttl = Config.get().getAccounts().getUserCacheTtl();
+        return new Entry(user, System.currentTimeMillis() +
+                TimeUnit.MILLISECONDS.convert(ttl, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Removes the users closest to expiring if the cache is full.
+     * Pending changes are kept, as they hold their own reference to the user.
+     */
+    private static void evict() {
+        var maxUsers = Config.get().getAccounts().getMaxUsers();
+        if (maxUsers <= 0 || cache.size() < maxUsers) return;
+
+        cache.values().removeIf(Entry::isExpired);
+
+        // Make room for a batch of users at once.
+        var excess = cache.size() - maxUsers + 1;
+        if (excess > 0) {
+            cache.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().expiresAt()))
+                    .limit(excess + maxUsers / 10)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(cache::remove);
+        }
+    }
+
+    /** Task used for writing pending changes. */
+    static final class FlushTask extends TimerTask {
+        @Override
+        public void run() {
+            UserCache.flush();
+        }
+    }
+
+    /** Task used for removing expired users. */
+    static final class PurgeTask extends TimerTask {
+        @Override
+        public void run() {
+            cache.values().removeIf(Entry::isExpired);
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Laudiolin;
+import moe.seikimo.laudiolin.NodeStream;
+import moe.seikimo.laudiolin.Messages.YouTubeStreamChunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A sparse, on-disk copy of a remote audio stream.
+ * Only the blocks which have been fetched are present in the file.
+ */
+public final class CachedStream {
+    @Getter private final String videoId;
+    @Getter private final String quality;
+    @Getter private final File file;
+
+    private final RandomAccessFile handle;
+    private final FileChannel channel;
+    private final BitSet blocks = new BitSet();
+    private final BitSet fetching = new BitSet();
+
+    /* Guards the file and blocks; a lock doesn't pin virtual threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition fetched = this.lock.newCondition();
+
+    @Getter private long contentLength = 0;
+    @Getter private volatile String mimeType = "";
+    @Getter private long size = 0;
+
+    /* The amount of requests currently using this stream. */
+    int users = 0;
+
+    /**
+     * Creates a new cached stream.
+     *
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @param file The file to store blocks in.
+     */
+    CachedStream(String videoId, String quality, File file) throws IOException {
+        this.videoId = videoId;
+        this.quality = quality;
+        this.file = file;
+
+        this.handle = new RandomAccessFile(file, "rw");
+        this.channel = this.handle.getChannel();
+
+        // Use the metadata of previous requests.
+        var info = StreamInfoCache.get(videoId, quality);
+        if (info != null) {
+            this.contentLength = info.contentLength();
+            this.mimeType = info.mimeType();
+        }
+    }
+
+    /**
+     * Receives the data of a range as it becomes available.
+     */
+    public interface Sink {
+        /**
+         * Invoked once, before any data is written.
+         *
+         * @param contentLength The total length of the stream.
+         * @param mimeType The format of the stream.
+         */
+        void begin(long contentLength, String mimeType) throws IOException;
+
+        /**
+         * Invoked for each piece of the range, in order.
+         *
+         * @param data The buffer containing the data.
+         * @param offset The offset of the data in the buffer.
+         * @param length The length of the data.
+         */
+        void write(byte[] data, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Thrown when a sink fails, usually because the client disconnected.
+     */
+    public static final class SinkException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private SinkException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Tracks how much of a range has been forwarded to a sink.
+     */
+    private final class Cursor {
+        private final Sink sink;
+        private long position;
+        private long end;
+        private boolean begun = false;
+
+        private Cursor(Sink sink, long start, long end) {
+            this.sink = sink;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Forwards data to the sink.
+         *
+         * @param contentLength The total length of the stream.
+         * @param data The buffer containing the data.
+         * @param offset The offset of the data in the buffer.
+         * @param length The length of the data.
+         */
+        private void forward(long contentLength, byte[] data, int offset, int length) throws IOException {
+            this.position += length;
+            if (this.sink == null) return;
+
+            this.begin(contentLength);
+            try {
+                this.sink.write(data, offset, length);
+            } catch (IOException exception) {
+                throw new SinkException(exception);
+            }
+        }
+
+        /**
+         * Notifies the sink of the stream length, if it hasn't been yet.
+         *
+         * @param contentLength The total length of the stream.
+         */
+        private void begin(long contentLength) throws IOException {
+            if (this.begun || this.sink == null) return;
+
+            this.begun = true;
+            try {
+                this.sink.begin(contentLength, CachedStream.this.mimeType);
+            } catch (IOException exception) {
+                throw new SinkException(exception);
+            }
+        }
+    }
+
+    /**
+     * Streams a range to a sink.
+     * Cached blocks are read from the file; missing blocks are fetched
+     * from Node and forwarded chunk by chunk as they arrive.
+     *
+     * @param start The first byte of the range.
+     * @param end The last byte of the range.
+     * @param sink The sink to forward data to, or null to only cache the range.
+     */
+    void stream(long start, long end, Sink sink) throws IOException {
+        var cursor = new Cursor(sink, start, end);
+        var buffer = sink == null ? null : new byte[SegmentCache.BLOCK_SIZE];
+
+        while (true) {
+            long contentLength;
+            var read = 0;
+            this.lock.lock();
+            try {
+                contentLength = this.contentLength;
+                if (contentLength > 0) {
+                    cursor.end = Math.min(end, contentLength - 1);
+                }
+                if (cursor.position > cursor.end) break;
+
+                var block = (int) (cursor.position / SegmentCache.BLOCK_SIZE);
+                if (this.blocks.get(block)) {
+                    // Read the rest of the cached block.
+                    var blockEnd = Math.min((long) (block + 1) * SegmentCache.BLOCK_SIZE - 1, cursor.end);
+                    var length = (int) (blockEnd - cursor.position + 1);
+                    if (buffer == null) {
+                        cursor.position += length;
+                        continue;
+                    }
+
+                    read = this.read(cursor.position, buffer, length);
+                } else if (this.fetching.get(block)) {
+                    // Wait for the request which is fetching the block.
+                    try {
+                        this.fetched.await(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException exception) {
+                        throw new IOException("Interrupted while waiting for a block.", exception);
+                    }
+                    continue;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (read > 0) {
+                // Forward the data outside the lock.
+                cursor.forward(contentLength, buffer, 0, read);
+            } else if (!this.fetch(cursor) && !this.isPastEnd(cursor.position)) {
+                throw new IOException("Failed to fetch stream segment.");
+            }
+        }
+
+        // The range may lie entirely past the end of the stream.
+        cursor.begin(this.contentLength);
+    }
+
+    /**
+     * @param position A position in the stream.
+     * @return Whether the position is known to be past the end of the stream.
+     */
+    private boolean isPastEnd(long position) {
+        this.lock.lock();
+        try {
+            return this.contentLength > 0 && position >= this.contentLength;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Fetches the run of missing blocks at the cursor from Node.
+     * Each chunk is cached and then forwarded to the cursor's sink.
+     *
+     * @param cursor The cursor of the range being streamed.
+     * @return Whether any data was received, or another request got to the block first.
+     */
+    private boolean fetch(Cursor cursor) throws IOException {
+        long from, to;
+        int first, runEnd;
+        this.lock.lock();
+        try {
+            first = (int) (cursor.position / SegmentCache.BLOCK_SIZE);
+            var last = (int) (cursor.end / SegmentCache.BLOCK_SIZE);
+
+            // The block may have been cached or claimed since it was checked.
+            if (this.blocks.get(first) || this.fetching.get(first)) return true;
+
+            // Find the end of the missing run.
+            // Blocks being fetched by another request end the run.
+            runEnd = first;
+            while (runEnd < last && !this.blocks.get(runEnd + 1)
+                    && !this.fetching.get(runEnd + 1)) {
+                runEnd++;
+            }
+            // Only this request clears the blocks it claims.
+            this.fetching.set(first, runEnd + 1);
+
+            from = (long) first * SegmentCache.BLOCK_SIZE;
+            to = (long) (runEnd + 1) * SegmentCache.BLOCK_SIZE - 1;
+            if (this.contentLength > 0) {
+                to = Math.min(to, this.contentLength - 1);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        // Request the data.
+        var received = false;
+        try (var stream = Laudiolin.getNode().youtubeStreamChunked(
+                this.videoId, this.quality, (int) from, (int) to,
+                this.contentLength, this.mimeType)) {
+            var offset = from;
+            YouTubeStreamChunk chunk;
+            while ((chunk = stream.next()) != null) {
+                var data = chunk.getData();
+                var length = data.size();
+
+                long contentLength;
+                this.lock.lock();
+                try {
+                    this.learn(stream);
+                    contentLength = this.contentLength;
+
+                    SegmentCache.account(this.write(
+                            offset, data.asReadOnlyByteBuffer()));
+                    this.fetched.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+
+                // Forward the part of the chunk which was requested.
+                var skip = (int) Math.max(0, cursor.position - offset);
+                var available = Math.min(offset + length - 1, cursor.end) - (offset + skip) + 1;
+                if (skip < length && available > 0) {
+                    var bytes = cursor.sink == null ? null : data.toByteArray();
+                    cursor.forward(contentLength, bytes, skip, (int) available);
+                }
+
+                offset += length;
+                received |= length > 0;
+            }
+
+            // The end frame can reveal that the range is past the end.
+            this.lock.lock();
+            try {
+                this.learn(stream);
+            } finally {
+                this.lock.unlock();
+            }
+        } catch (IOException exception) {
+            // The metadata passed to Node may be stale.
+            if (!(exception instanceof SinkException)) {
+                StreamInfoCache.invalidate(this.videoId, this.quality);
+            }
+            throw exception;
+        } finally {
+            this.lock.lock();
+            try {
+                this.fetching.clear(first, runEnd + 1);
+                this.fetched.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        return received;
+    }
+
+    /**
+     * Updates the stream metadata from what Node reported.
+     * New metadata is shared with later requests.
+     *
+     * @param stream The stream of chunks from Node.
+     */
+    private void learn(NodeStream stream) {
+        var contentLength = stream.getContentLength();
+        var mimeType = stream.getMimeType();
+        if (contentLength <= 0) return;
+        if (contentLength == this.contentLength &&
+                (mimeType.isEmpty() || mimeType.equals(this.mimeType))) return;
+
+        this.contentLength = contentLength;
+        if (!mimeType.isEmpty()) this.mimeType = mimeType;
+
+        StreamInfoCache.put(this.videoId, this.quality,
+                this.contentLength, this.mimeType);
+    }
+
+    /**
+     * Writes fetched data into the file and marks the fully written blocks.
+     *
+     * @param position The position of the data in the stream.
+     * @param data The data to write.
+     * @return The amount of bytes which were newly cached.
+     */
+    private long write(long position, ByteBuffer data) throws IOException {
+        var length = data.remaining();
+        if (length == 0) return 0;
+
+        var offset = position;
+        while (data.hasRemaining()) {
+            offset += this.channel.write(data, offset);
+        }
+
+        // The block boundaries are unknown without the length.
+        if (this.contentLength <= 0) return 0;
+
+        // Mark all blocks which were fully written by this fetch.
+        // The fetch writes contiguously from an aligned start, so these
+        // are the blocks ending in this data.
+        var written = position + length - 1;
+        var added = 0L;
+        var first = (int) (position / SegmentCache.BLOCK_SIZE);
+        for (var block = first; block <= this.lastBlock(); block++) {
+            var blockStart = (long) block * SegmentCache.BLOCK_SIZE;
+            var blockEnd = Math.min(blockStart + SegmentCache.BLOCK_SIZE,
+                    this.contentLength) - 1;
+            if (written < blockEnd) break;
+
+            if (!this.blocks.get(block)) {
+                this.blocks.set(block);
+                added += blockEnd - blockStart + 1;
+            }
+        }
+
+        this.size += added;
+        return added;
+    }
+
+    /**
+     * Reads cached bytes from the file.
+     *
+     * @param position The position to read from.
+     * @param buffer The buffer to read into.
+     * @param length The amount of bytes to read.
+     * @return The amount of bytes read.
+     */
+    private int read(long position, byte[] buffer, int length) throws IOException {
+        var target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            var read = this.channel.read(target, position + target.position());
+            if (read < 0) break;
+        }
+
+        return target.position();
+    }
+
+    /**
+     * @return The index of the last block in the stream.
+     */
+    private int lastBlock() {
+        return this.contentLength <= 0 ? Integer.MAX_VALUE :
+                (int) ((this.contentLength - 1) / SegmentCache.BLOCK_SIZE);
+    }
+
+    /**
+     * Closes and deletes the underlying file.
+     */
+    void close() {
+        this.lock.lock();
+        try {
+            this.handle.close();
+        } catch (IOException ignored) {
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (this.file.exists() && !this.file.delete()) {
+            SegmentCache.getLogger().warn("Unable to delete segment file {}.", this.file);
+        }
+    }
+}
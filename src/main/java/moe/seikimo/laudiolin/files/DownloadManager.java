@@ -0,0 +1,157 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.Laudiolin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public final class DownloadManager {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Download Manager");
+
+    /* Video ID -> The download which all callers wait on. */
+    private static final Map<String, CompletableFuture<String>> downloads
+            = new ConcurrentHashMap<>();
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Creates the download executor.
+     * Its size caps how many transcodes Node runs at once.
+     */
+    public static void initialize() {
+        var limit = Math.max(1, Config.get().getStorage().getMaxDownloads());
+        DownloadManager.executor = new ThreadPoolExecutor(
+                limit, limit, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * Downloads a YouTube video.
+     * Concurrent calls for the same video share a single download.
+     * Each caller receives its own future, so cancelling it doesn't
+     * affect the download or other callers.
+     *
+     * @param videoId The YouTube video ID.
+     * @return A future resolving to the lease of the downloaded file, which must be closed.
+     */
+    public static CompletableFuture<StorageManager.Lease> download(String videoId) {
+        // Join a download which is still being written.
+        var pending = downloads.get(videoId);
+        if (pending != null) return DownloadManager.pin(videoId, pending);
+
+        // Check if the file exists on the local machine.
+        var lease = StorageManager.lookup(videoId);
+        if (lease != null) {
+            return CompletableFuture.completedFuture(lease);
+        }
+
+        // Join an existing download.
+        var future = new CompletableFuture<String>();
+        var existing = downloads.putIfAbsent(videoId, future);
+        if (existing != null) return DownloadManager.pin(videoId, existing);
+
+        executor.execute(() -> {
+            try {
+                // Check that Node produced the file.
+                var path = Laudiolin.getNode().youtubeDownload(videoId);
+                if (path == null || path.isEmpty() || !new File(path).exists()) {
+                    throw new IOException("Node didn't download " + videoId + ".");
+                }
+
+                // Move the finished transcode into place and deduplicate it.
+                var name = videoId + ".mp3";
+                var storage = StorageManager.getBackend();
+                storage.commit(name);
+
+                var downloaded = storage.locate(name);
+                if (!downloaded.exists()) {
+                    throw new IOException("The download of " + videoId + " is missing.");
+                }
+
+                // Callers pin the file while it is still pinned here.
+                var added = StorageManager.add(videoId, downloaded);
+                try {
+                    future.complete(downloaded.getAbsolutePath());
+                } finally {
+                    added.close();
+                }
+            } catch (Throwable throwable) {
+                logger.warn("Failed to download {}.", videoId, throwable);
+                future.completeExceptionally(throwable);
+            } finally {
+                downloads.remove(videoId, future);
+            }
+        });
+
+        return DownloadManager.pin(videoId, future);
+    }
+
+    /**
+     * Creates a caller's future for a download.
+     * Leases which arrive after the caller gave up are closed.
+     *
+     * @param videoId The YouTube video ID.
+     * @param download The shared download.
+     * @return A future resolving to the lease of the downloaded file.
+     */
+    private static CompletableFuture<StorageManager.Lease> pin(
+            String videoId, CompletableFuture<String> download) {
+        var pinned = new CompletableFuture<StorageManager.Lease>();
+        download.whenComplete((path, exception) -> {
+            if (exception != null) {
+                pinned.completeExceptionally(exception);
+                return;
+            }
+
+            var lease = StorageManager.lookup(videoId);
+            if (lease == null) {
+                pinned.completeExceptionally(new IllegalStateException(
+                        "The download of " + videoId + " was evicted."));
+            } else if (!pinned.complete(lease)) {
+                lease.close();
+            }
+        });
+
+        return pinned;
+    }
+
+    /**
+     * @param videoId The YouTube video ID.
+     * @return Whether the video is being downloaded or queued.
+     */
+    public static boolean isPending(String videoId) {
+        return downloads.containsKey(videoId);
+    }
+
+    /**
+     * @return The amount of downloads currently being transcoded.
+     */
+    public static int getInFlight() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return The amount of downloads waiting for a transcode slot.
+     */
+    public static int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The amount of distinct videos being downloaded or queued.
+     */
+    public static int getPending() {
+        return downloads.size();
+    }
+}
@@ -0,0 +1,191 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.enums.Source;
+import moe.seikimo.laudiolin.models.data.TrackData;
+import moe.seikimo.laudiolin.utils.SpotifyUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class PreCache {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Pre-Cache");
+
+    /** The priority of the track being played. */
+    public static final int PLAYING = 0;
+    /** The priority of the track played next. */
+    public static final int NEXT = 1;
+    /** The priority of tracks later in the queue. */
+    public static final int LATER = 2;
+
+    /* Owner ID -> The jobs scheduled for the owner's queue. */
+    private static final Map<String, List<Job>> owners
+            = new ConcurrentHashMap<>();
+    /* The IDs of the tracks being warmed. */
+    private static final Set<String> warming
+            = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * A track waiting to be warmed.
+     * Jobs are ordered by priority, then by when they were scheduled.
+     */
+    static final class Job implements Runnable, Comparable<Job> {
+        private final String trackId;
+        private final int priority;
+        private final long order = sequence.getAndIncrement();
+
+        private volatile boolean cancelled = false;
+
+        private Job(String trackId, int priority) {
+            this.trackId = trackId;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            if (this.cancelled) return;
+            // Another owner is already warming the track.
+            if (!warming.add(this.trackId)) return;
+
+            try {
+                PreCache.warm(this.trackId);
+            } catch (Exception exception) {
+                logger.debug("Failed to warm {}.", this.trackId, exception);
+            } finally {
+                warming.remove(this.trackId);
+            }
+        }
+
+        @Override
+        public int compareTo(@NotNull Job other) {
+            var compare = Integer.compare(this.priority, other.priority);
+            return compare != 0 ? compare : Long.compare(this.order, other.order);
+        }
+    }
+
+    /**
+     * Creates the pre-cache executor.
+     * Its size caps how many tracks are warmed at once.
+     */
+    public static void initialize() {
+        var threads = Math.max(1, Config.get().getStorage().getPreCacheThreads());
+        PreCache.executor = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+    }
+
+    /**
+     * Replaces the tracks warmed for an owner.
+     * Jobs of the previous queue which haven't started are cancelled.
+     *
+     * @param owner The ID of the user or guild playing the tracks.
+     * @param playing The track being played, or null.
+     * @param queue The tracks played next, in order.
+     */
+    public static void update(String owner, TrackData playing, List<TrackData> queue) {
+        var storage = Config.get().getStorage();
+        if (executor == null || owner == null || !storage.isHostRemote()) return;
+
+        // Determine which tracks to warm.
+        var tracks = new ArrayList<TrackData>();
+        if (playing != null) tracks.add(playing);
+        if (queue != null) {
+            tracks.addAll(queue.subList(0,
+                    Math.min(queue.size(), storage.getPreCacheTracks())));
+        }
+
+        var jobs = new ArrayList<Job>();
+        for (var i = 0; i < tracks.size(); i++) {
+            var track = tracks.get(i);
+            if (track == null || track.isLocal() || track.getId() == null) continue;
+
+            var priority = playing == null ? i + 1 : i;
+            jobs.add(new Job(track.getId(), Math.min(priority, LATER)));
+        }
+
+        // Cancel the previous queue's jobs.
+        var previous = owners.put(owner, jobs);
+        if (previous != null) PreCache.cancel(previous);
+
+        jobs.forEach(executor::execute);
+    }
+
+    /**
+     * Cancels all jobs of an owner.
+     *
+     * @param owner The ID of the user or guild.
+     */
+    public static void clear(String owner) {
+        if (owner == null) return;
+
+        var jobs = owners.remove(owner);
+        if (jobs != null) PreCache.cancel(jobs);
+    }
+
+    /**
+     * @return The amount of tracks waiting to be warmed.
+     */
+    public static int getQueued() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return The amount of tracks being warmed.
+     */
+    public static int getWarming() {
+        return warming.size();
+    }
+
+    /**
+     * Cancels jobs which haven't started.
+     *
+     * @param jobs The jobs to cancel.
+     */
+    private static void cancel(List<Job> jobs) {
+        for (var job : jobs) {
+            job.cancelled = true;
+            executor.remove(job);
+        }
+    }
+
+    /**
+     * Warms the cache for a track.
+     * Either the track is transcoded, or its first segments are cached.
+     *
+     * @param trackId The ID of the track.
+     */
+    private static void warm(String trackId) throws Exception {
+        // Local tracks are always available.
+        if (LocalFileManager.getLocalTracks().containsKey(trackId)) return;
+
+        var videoId = switch (Source.identify(null, trackId)) {
+            case UNKNOWN -> null;
+            case ALL, YOUTUBE -> trackId;
+            case SPOTIFY -> SpotifyUtils.toYouTubeId(trackId);
+        };
+        if (videoId == null) return;
+
+        var storage = Config.get().getStorage();
+        if (storage.isPreCacheDownload()) {
+            DownloadManager.download(videoId).get().close();
+        } else {
+            SegmentCache.stream(videoId, "High",
+                    0, storage.getPreCacheBytes() - 1, null);
+        }
+    }
+}
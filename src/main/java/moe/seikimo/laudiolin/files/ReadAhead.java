@@ -0,0 +1,206 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public final class ReadAhead {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Read Ahead");
+
+    /** The time (in milliseconds) after which an idle session is dropped. */
+    private static final long SESSION_TIMEOUT = 60_000;
+
+    /* Client/video/quality -> The playback session. */
+    private static final Map<String, Session> sessions
+            = new ConcurrentHashMap<>();
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * The sequential reads of a client playing a stream.
+     */
+    static final class Session {
+        private final String videoId;
+        private final String quality;
+        private final List<Future<?>> tasks = new ArrayList<>();
+
+        private long nextStart = -1; // The start expected of the next sequential read.
+        private long prefetched = 0; // The end (exclusive) of the scheduled read-ahead.
+        private long lastRead = 0; // The time of the last read.
+
+        private long interval = 0; // The smoothed time between sequential reads.
+        private long fetchTime = 0; // The smoothed time to fetch a window.
+        private int depth = 1; // The amount of windows read ahead.
+
+        private Session(String videoId, String quality) {
+            this.videoId = videoId;
+            this.quality = quality;
+        }
+
+        /**
+         * Cancels all read-ahead which hasn't started.
+         */
+        private void cancel() {
+            this.tasks.forEach(task -> task.cancel(false));
+            this.tasks.clear();
+        }
+    }
+
+    /**
+     * Creates the read-ahead executor.
+     */
+    public static void initialize() {
+        var threads = Math.max(1, Config.get().getStorage().getReadAheadThreads());
+        ReadAhead.executor = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+
+        // Periodically drop idle sessions.
+        new Timer().scheduleAtFixedRate(
+                new ExpireTask(), SESSION_TIMEOUT, SESSION_TIMEOUT);
+    }
+
+    /**
+     * Records a read of a stream by a client.
+     * Sequential reads schedule the following windows to be cached.
+     *
+     * @param client The identifier of the client.
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @param start The first byte of the read.
+     * @param end The last byte of the read.
+     */
+    public static void onRead(String client, String videoId, String quality, long start, long end) {
+        var maxDepth = Config.get().getStorage().getReadAheadWindows();
+        if (maxDepth <= 0 || executor == null) return;
+
+        var key = client + "/" + videoId + "/" + StreamInfoCache.normalize(quality);
+        var session = sessions.computeIfAbsent(key,
+                k -> new Session(videoId, StreamInfoCache.normalize(quality)));
+
+        synchronized (session) {
+            var now = System.currentTimeMillis();
+            var window = end - start + 1;
+
+            // Players may re-request the tail of the last read.
+            var sequential = session.nextStart >= 0 &&
+                    Math.abs(start - session.nextStart) <= SegmentCache.BLOCK_SIZE;
+            if (sequential) {
+                session.interval = ReadAhead.smooth(session.interval, now - session.lastRead);
+            } else {
+                // The client seeked; the read-ahead is no longer useful.
+                session.cancel();
+                session.interval = 0;
+                session.prefetched = end + 1;
+            }
+
+            session.lastRead = now;
+            session.nextStart = end + 1;
+            // A pattern needs at least two sequential reads.
+            if (!sequential) return;
+
+            // Read far enough ahead to fetch a window before it is needed.
+            if (session.fetchTime > 0 && session.interval > 0) {
+                var needed = (int) Math.ceil((double) session.fetchTime / session.interval) + 1;
+                session.depth = Math.max(1, Math.min(maxDepth, needed));
+            }
+
+            // Don't read past the end of the stream.
+            var target = end + 1 + session.depth * window;
+            var info = StreamInfoCache.get(videoId, quality);
+            if (info != null) target = Math.min(target, info.contentLength());
+
+            session.tasks.removeIf(Future::isDone);
+            session.prefetched = Math.max(session.prefetched, end + 1);
+            while (session.prefetched < target) {
+                var from = session.prefetched;
+                var to = Math.min(from + window, target) - 1;
+
+                session.tasks.add(executor.submit(() -> ReadAhead.fetch(session, from, to)));
+                session.prefetched = to + 1;
+            }
+        }
+    }
+
+    /**
+     * Stops reading ahead for a client.
+     * Used when the client disconnects or the stream fails.
+     *
+     * @param client The identifier of the client.
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     */
+    public static void stop(String client, String videoId, String quality) {
+        var session = sessions.remove(client + "/" + videoId + "/" +
+                StreamInfoCache.normalize(quality));
+        if (session == null) return;
+
+        synchronized (session) {
+            session.cancel();
+        }
+    }
+
+    /**
+     * Caches a window of a stream.
+     *
+     * @param session The session the window is read for.
+     * @param start The first byte of the window.
+     * @param end The last byte of the window.
+     */
+    private static void fetch(Session session, long start, long end) {
+        var began = System.currentTimeMillis();
+        if (!SegmentCache.stream(session.videoId, session.quality, start, end, null)) {
+            synchronized (session) {
+                // Retry from this window on the next read.
+                session.cancel();
+                session.prefetched = Math.min(session.prefetched, start);
+            }
+            return;
+        }
+
+        var elapsed = System.currentTimeMillis() - began;
+        synchronized (session) {
+            session.fetchTime = ReadAhead.smooth(session.fetchTime, elapsed);
+        }
+    }
+
+    /**
+     * Applies an exponential moving average.
+     *
+     * @param average The current average, or 0 if there is none.
+     * @param sample The new sample.
+     * @return The new average.
+     */
+    private static long smooth(long average, long sample) {
+        return average == 0 ? sample : (average * 3 + sample) / 4;
+    }
+
+    /** Task used for dropping idle sessions. */
+    static final class ExpireTask extends TimerTask {
+        @Override
+        public void run() {
+            var cutoff = System.currentTimeMillis() - SESSION_TIMEOUT;
+            sessions.values().removeIf(session -> {
+                synchronized (session) {
+                    if (session.lastRead >= cutoff) return false;
+
+                    session.cancel();
+                    return true;
+                }
+            });
+        }
+    }
+}
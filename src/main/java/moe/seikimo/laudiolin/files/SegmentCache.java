@@ -0,0 +1,166 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.objects.Constants;
+import moe.seikimo.laudiolin.utils.EncodingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class SegmentCache {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Segment Cache");
+
+    /** The size of a cached block. Fetched ranges are aligned to this. */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /* Access-ordered, the eldest entry is the least recently used. */
+    private static final Map<String, CachedStream> streams
+            = new LinkedHashMap<>(16, 0.75f, true);
+    /* Guards the streams; a lock doesn't pin virtual threads during file IO. */
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final AtomicLong cachedBytes = new AtomicLong();
+
+    private static File directory;
+
+    /**
+     * Prepares the segment directory.
+     * The block index is kept in memory, so leftover files are removed.
+     */
+    public static void initialize() {
+        SegmentCache.directory = new File(Constants.STORAGE_PATH, "segments");
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new RuntimeException("Unable to make the 'segments' directory.");
+        }
+
+        var files = directory.listFiles();
+        if (files == null) return;
+
+        for (var file : files) {
+            if (!file.delete()) {
+                logger.warn("Unable to delete stale segment file {}.", file);
+            }
+        }
+    }
+
+    /**
+     * Streams a range of a remote stream to a sink.
+     * Blocks which aren't cached are fetched from Node as they are forwarded.
+     *
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @param start The first byte of the range.
+     * @param end The last byte of the range.
+     * @param sink The sink to forward data to, or null to only cache the range.
+     * @return Whether the range was streamed successfully.
+     */
+    public static boolean stream(
+            String videoId, String quality,
+            long start, long end, CachedStream.Sink sink
+    ) {
+        CachedStream stream = null;
+        try {
+            stream = SegmentCache.acquire(videoId, quality);
+            stream.stream(start, end, sink);
+
+            return true;
+        } catch (CachedStream.SinkException exception) {
+            logger.debug("Client stopped streaming {}: {}", videoId, exception.getMessage());
+            return false;
+        } catch (IOException exception) {
+            logger.warn("Unable to stream segment of {}.", videoId, exception);
+            return false;
+        } finally {
+            if (stream != null) SegmentCache.release(stream);
+            SegmentCache.evict();
+        }
+    }
+
+    /**
+     * @return The amount of bytes currently cached.
+     */
+    public static long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    /**
+     * Records bytes which were newly cached.
+     *
+     * @param bytes The amount of bytes.
+     */
+    static void account(long bytes) {
+        cachedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Fetches or creates the cached stream for a video.
+     * The stream is marked as in use until released.
+     *
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @return The cached stream.
+     */
+    private static CachedStream acquire(String videoId, String quality) throws IOException {
+        quality = StreamInfoCache.normalize(quality);
+
+        var key = videoId + "/" + quality;
+        lock.lock();
+        try {
+            var stream = streams.get(key);
+            if (stream == null) {
+                // The ID is user input, so it isn't used as the file name.
+                var fileName = EncodingUtils.sha256Hash(key.getBytes(), 32) + ".part";
+                stream = new CachedStream(videoId, quality, new File(directory, fileName));
+                streams.put(key, stream);
+            }
+
+            stream.users++;
+            return stream;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a cached stream as no longer in use.
+     *
+     * @param stream The cached stream.
+     */
+    private static void release(CachedStream stream) {
+        lock.lock();
+        try {
+            stream.users--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used streams until the cache is within budget.
+     * Streams which are in use are never evicted.
+     */
+    private static void evict() {
+        var budget = Config.get().getStorage().getSegmentCacheSize();
+        lock.lock();
+        try {
+            var iterator = streams.values().iterator();
+            while (cachedBytes.get() > budget && iterator.hasNext()) {
+                var stream = iterator.next();
+                if (stream.users > 0) continue;
+
+                iterator.remove();
+                stream.close();
+                cachedBytes.addAndGet(-stream.getSize());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Stores files in hash-prefixed subdirectories.
+ * File contents are kept once in an object directory, and named files
+ * are hard links to them.
+ */
+public final class ShardedStorage implements StorageBackend {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Sharded Storage");
+
+    /** The file types which used to be stored in the root directory. */
+    private static final List<String> LEGACY_TYPES = List.of(".mp3", ".png");
+
+    private final File root;
+    private final File files;
+    private final File objects;
+    private final boolean deduplicate;
+
+    /**
+     * Creates a new sharded storage.
+     *
+     * @param root The storage directory.
+     * @param deduplicate Whether files with identical content should be linked.
+     */
+    public ShardedStorage(File root, boolean deduplicate) {
+        this.root = root;
+        this.files = new File(root, "files");
+        this.objects = new File(root, "objects");
+        this.deduplicate = deduplicate;
+    }
+
+    @Override
+    public File locate(String name) {
+        var file = this.shard(this.files, name);
+        if (file.exists()) return file;
+
+        // Fall back to the flat layout until the file is migrated.
+        var legacy = new File(this.root, name);
+        return legacy.exists() ? legacy : file;
+    }
+
+    @Override
+    public File prepare(String name) throws IOException {
+        var file = this.shard(this.files, name);
+        Files.createDirectories(file.getParentFile().toPath());
+
+        return file;
+    }
+
+    @Override
+    public File preparePartial(String name) throws IOException {
+        var file = this.prepare(name);
+        return new File(file.getParentFile(), name + ".part");
+    }
+
+    @Override
+    public void commit(String name) throws IOException {
+        var file = this.shard(this.files, name);
+
+        // Publish the finished partial file.
+        var partial = new File(file.getParentFile(), name + ".part");
+        if (partial.exists()) {
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        if (!this.deduplicate) return;
+        if (!file.exists()) return;
+
+        var object = this.shard(this.objects, ShardedStorage.hash(file));
+        var path = file.toPath();
+        try {
+            if (object.exists()) {
+                if (Files.isSameFile(path, object.toPath())) return;
+
+                // Replace the file with a link to the identical object.
+                var link = new File(file.getParentFile(), name + ".link").toPath();
+                Files.deleteIfExists(link);
+                Files.createLink(link, object.toPath());
+                Files.move(link, path, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                // The file becomes the object.
+                Files.createDirectories(object.getParentFile().toPath());
+                Files.createLink(object.toPath(), path);
+            }
+        } catch (UnsupportedOperationException exception) {
+            // The file system doesn't support links; keep the copy.
+            logger.debug("Unable to link {}.", name, exception);
+        }
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        var file = this.prepare(name);
+
+        // Write to a temporary file so readers never see partial data.
+        var temporary = new File(file.getParentFile(), name + ".tmp").toPath();
+        Files.write(temporary, data);
+        Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        this.commit(name);
+    }
+
+    @Override
+    public boolean delete(String name) {
+        var file = this.locate(name);
+        if (!file.exists()) return true;
+
+        // Find the object, if this is its last name.
+        File object = null;
+        try {
+            if (this.deduplicate && ShardedStorage.links(file.toPath()) == 2) {
+                object = this.shard(this.objects, ShardedStorage.hash(file));
+            }
+        } catch (IOException ignored) { }
+
+        if (!file.delete()) return false;
+
+        // Delete the object once nothing refers to it.
+        if (object != null && object.exists()) {
+            try {
+                if (ShardedStorage.links(object.toPath()) == 1 && !object.delete()) {
+                    logger.warn("Unable to delete unused object {}.", object);
+                }
+            } catch (IOException ignored) { }
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<String> list() {
+        var names = new ArrayList<String>();
+
+        // Collect the sharded files.
+        try (var paths = Files.walk(this.files.toPath(), 3)) {
+            paths.filter(Files::isRegularFile)
+                    .map(path -> path.getFileName().toString())
+                    .filter(ShardedStorage::isStored)
+                    .forEach(names::add);
+        } catch (IOException ignored) {
+            // The directory doesn't exist yet.
+        }
+
+        // Collect the files which weren't migrated.
+        names.addAll(this.legacy());
+
+        return names;
+    }
+
+    @Override
+    public int migrate() throws IOException {
+        var migrated = 0;
+        for (var name : this.legacy()) {
+            var legacy = new File(this.root, name);
+            var file = this.prepare(name);
+
+            if (file.exists()) {
+                // The file was written again after the layout changed.
+                Files.deleteIfExists(legacy.toPath());
+            } else {
+                Files.move(legacy.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            this.commit(name);
+            migrated++;
+        }
+
+        return migrated;
+    }
+
+    /**
+     * @return The names of the files stored in the flat layout.
+     */
+    private List<String> legacy() {
+        var names = new ArrayList<String>();
+        var legacy = this.root.listFiles(
+                (dir, name) -> LEGACY_TYPES.stream().anyMatch(name::endsWith));
+        if (legacy == null) return names;
+
+        for (var file : legacy) {
+            if (file.isFile()) names.add(file.getName());
+        }
+
+        return names;
+    }
+
+    /**
+     * Determines where a name is stored.
+     * The first two bytes of the name's hash select the subdirectories.
+     *
+     * @param directory The directory to shard.
+     * @param name The name of the file.
+     * @return The file.
+     */
+    private File shard(File directory, String name) {
+        var hash = ShardedStorage.hash(name.getBytes());
+        return new File(directory, hash.substring(0, 2) + File.separator +
+                hash.substring(2, 4) + File.separator + name);
+    }
+
+    /**
+     * @param name The name of a file in the sharded directories.
+     * @return Whether the file is a stored file, and not a temporary one.
+     */
+    private static boolean isStored(String name) {
+        return !name.endsWith(".tmp") && !name.endsWith(".link") &&
+                !name.endsWith(".part");
+    }
+
+    /**
+     * @param path The path of a file.
+     * @return The amount of names the file has, or 0 if unknown.
+     */
+    private static int links(Path path) throws IOException {
+        try {
+            return (int) Files.getAttribute(path, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException ignored) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param data The data to hash.
+     * @return The hex-encoded SHA-256 hash of the data.
+     */
+    private static String hash(byte[] data) {
+        return HexFormat.of().formatHex(ShardedStorage.digest().digest(data));
+    }
+
+    /**
+     * @param file The file to hash.
+     * @return The hex-encoded SHA-256 hash of the file's content.
+     */
+    private static String hash(File file) throws IOException {
+        var digest = ShardedStorage.digest();
+        try (var stream = new FileInputStream(file)) {
+            var buffer = new byte[64 * 1024];
+            var length = 0;
+            while ((length = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return A SHA-256 message digest.
+     */
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package moe.seikimo.laudiolin.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stores named files, such as downloaded tracks and playlist icons.
+ */
+public interface StorageBackend {
+    /**
+     * Finds the file of a name.
+     * Files which haven't been migrated yet are found in their old location.
+     *
+     * @param name The name of the file.
+     * @return The file, which may not exist.
+     */
+    File locate(String name);
+
+    /**
+     * Prepares the location of a file which is about to be written.
+     *
+     * @param name The name of the file.
+     * @return The file to write to.
+     */
+    File prepare(String name) throws IOException;
+
+    /**
+     * Prepares the location of a file which is written over time.
+     * Readers don't see the file until it is committed.
+     *
+     * @param name The name of the file.
+     * @return The partial file to write to.
+     */
+    File preparePartial(String name) throws IOException;
+
+    /**
+     * Takes ownership of a file written to its prepared location.
+     * A finished partial file is moved into place first.
+     * Files with identical content may be deduplicated.
+     *
+     * @param name The name of the file.
+     */
+    void commit(String name) throws IOException;
+
+    /**
+     * Writes and commits a file.
+     *
+     * @param name The name of the file.
+     * @param data The content of the file.
+     */
+    void write(String name, byte[] data) throws IOException;
+
+    /**
+     * Deletes a file.
+     *
+     * @param name The name of the file.
+     * @return Whether the file no longer exists.
+     */
+    boolean delete(String name);
+
+    /**
+     * @param name The name of the file.
+     * @return Whether the file exists.
+     */
+    default boolean exists(String name) {
+        return this.locate(name).exists();
+    }
+
+    /**
+     * Lists the names of all stored files.
+     *
+     * @return The names of the files.
+     */
+    List<String> list();
+
+    /**
+     * Moves files from their old location into this backend.
+     * This is safe to run while files are being served.
+     *
+     * @return The amount of files which were migrated.
+     */
+    int migrate() throws IOException;
+}
@@ -0,0 +1,300 @@
+package moe.seikimo.laudiolin.files;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.objects.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class StorageManager {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Storage Manager");
+
+    /* Video ID -> The cached file. */
+    private static final Map<String, Entry> entries
+            = new ConcurrentHashMap<>();
+    private static final AtomicLong totalBytes = new AtomicLong();
+    /* Serializes eviction; a lock doesn't pin virtual threads during file IO. */
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    @Getter private static StorageBackend backend;
+
+    @Getter private static final AtomicLong hits = new AtomicLong();
+    @Getter private static final AtomicLong misses = new AtomicLong();
+    @Getter private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A downloaded track in the storage directory.
+     */
+    static final class Entry {
+        private final String videoId;
+        private final String name;
+        private volatile long size;
+
+        private volatile long lastAccess;
+        private final AtomicInteger accesses = new AtomicInteger();
+        /* The amount of requests currently serving the file. */
+        private final AtomicInteger users = new AtomicInteger();
+
+        private Entry(String videoId, long size, long lastAccess) {
+            this.videoId = videoId;
+            this.name = videoId + ".mp3";
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+
+        /**
+         * Records an access of the file.
+         */
+        private void touch() {
+            this.lastAccess = System.currentTimeMillis();
+            this.accesses.incrementAndGet();
+        }
+    }
+
+    /**
+     * A file which won't be evicted until closed.
+     */
+    public static final class Lease implements AutoCloseable {
+        @Getter private final File file;
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(File file, Entry entry) {
+            this.file = file;
+            this.entry = entry;
+        }
+
+        /**
+         * Creates a lease for a file which isn't part of the cache.
+         *
+         * @param file The file.
+         * @return The lease.
+         */
+        public static Lease of(File file) {
+            return new Lease(file, null);
+        }
+
+        @Override
+        public void close() {
+            if (this.entry != null && this.closed.compareAndSet(false, true)) {
+                this.entry.users.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Indexes the downloaded tracks in the storage directory.
+     * The cache is trimmed to the configured limits afterward.
+     */
+    public static void initialize() {
+        StorageManager.backend = new ShardedStorage(Constants.STORAGE_PATH,
+                Config.get().getStorage().isDeduplicate());
+
+        for (var name : backend.list()) {
+            if (!name.endsWith(".mp3")) continue;
+
+            var file = backend.locate(name);
+            var videoId = name.substring(0, name.length() - 4);
+
+            // Use the latest time the file was known to be used.
+            var lastAccess = file.lastModified();
+            try {
+                var attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                lastAccess = Math.max(lastAccess, attributes.lastAccessTime().toMillis());
+            } catch (IOException ignored) { }
+
+            StorageManager.index(videoId, file, lastAccess);
+        }
+
+        logger.info("Indexed {} cached tracks ({} bytes).",
+                entries.size(), totalBytes.get());
+        StorageManager.evict();
+    }
+
+    /**
+     * Looks up the downloaded file of a video.
+     * This counts as an access of the file.
+     * The file isn't evicted until the lease is closed.
+     *
+     * @param videoId The YouTube video ID.
+     * @return The lease of the file, or null if the video isn't downloaded.
+     */
+    public static Lease lookup(String videoId) {
+        // Pinning is serialized with eviction.
+        lock.lock();
+        try {
+            var entry = entries.get(videoId);
+            if (entry == null && !DownloadManager.isPending(videoId)) {
+                // The file may have been placed there by someone else.
+                var file = backend.locate(videoId + ".mp3");
+                if (file.exists()) {
+                    entry = StorageManager.index(videoId, file, System.currentTimeMillis());
+                }
+            }
+
+            var file = entry == null ? null : backend.locate(entry.name);
+            if (file == null || !file.exists()) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            hits.incrementAndGet();
+            entry.touch();
+            return StorageManager.pin(file, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a newly downloaded file.
+     * Older files are evicted if the cache exceeds its limits;
+     * the new file is pinned beforehand, so it is never evicted.
+     *
+     * @param videoId The YouTube video ID.
+     * @param file The downloaded file.
+     * @return The lease of the file, which must be closed after use.
+     */
+    public static Lease add(String videoId, File file) {
+        Lease lease;
+        lock.lock();
+        try {
+            lease = StorageManager.pin(file,
+                    StorageManager.index(videoId, file, System.currentTimeMillis()));
+        } finally {
+            lock.unlock();
+        }
+
+        StorageManager.evict();
+        return lease;
+    }
+
+    /**
+     * Moves files from the flat storage layout into the backend.
+     * Files can still be served while they are moved.
+     */
+    public static void migrate() {
+        try {
+            var migrated = backend.migrate();
+            logger.info("Migrated {} files to the storage backend.", migrated);
+        } catch (IOException exception) {
+            logger.warn("Failed to migrate the storage directory.", exception);
+        }
+    }
+
+    /**
+     * @return The amount of bytes used by downloaded tracks.
+     */
+    public static long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @return The amount of downloaded tracks.
+     */
+    public static int getTotalFiles() {
+        return entries.size();
+    }
+
+    /**
+     * Prevents an entry from being evicted.
+     *
+     * @param file The file of the entry.
+     * @param entry The entry.
+     * @return The lease, which must be closed after use.
+     */
+    private static Lease pin(File file, Entry entry) {
+        entry.users.incrementAndGet();
+        return new Lease(file, entry);
+    }
+
+    /**
+     * Adds a file to the index.
+     * An indexed file is updated in place, so it stays pinned.
+     *
+     * @param videoId The YouTube video ID.
+     * @param file The file.
+     * @param lastAccess The time the file was last used.
+     * @return The entry of the file.
+     */
+    private static Entry index(String videoId, File file, long lastAccess) {
+        var size = file.length();
+        var entry = entries.get(videoId);
+        if (entry == null) {
+            entry = new Entry(videoId, size, lastAccess);
+            entries.put(videoId, entry);
+            totalBytes.addAndGet(size);
+            return entry;
+        }
+
+        totalBytes.addAndGet(size - entry.size);
+        entry.size = size;
+        entry.lastAccess = Math.max(entry.lastAccess, lastAccess);
+        return entry;
+    }
+
+    /**
+     * Evicts files until the cache is within its limits.
+     * Files which are being served are never evicted.
+     */
+    private static void evict() {
+        lock.lock();
+        try {
+            var storage = Config.get().getStorage();
+            var maxBytes = storage.getMaxCacheBytes();
+            var maxFiles = storage.getMaxCacheFiles();
+            if (!StorageManager.exceeds(maxBytes, maxFiles)) return;
+
+            // Order the files by which should be evicted first.
+            Comparator<Entry> order = Comparator.comparingLong(entry -> entry.lastAccess);
+            if ("LFU".equalsIgnoreCase(storage.getEvictionPolicy())) {
+                order = Comparator.<Entry>comparingInt(entry -> entry.accesses.get())
+                        .thenComparing(order);
+            }
+
+            var candidates = new ArrayList<>(entries.values());
+            candidates.sort(order);
+
+            for (var entry : candidates) {
+                if (!StorageManager.exceeds(maxBytes, maxFiles)) break;
+                if (entry.users.get() > 0) continue;
+
+                if (!backend.delete(entry.name)) {
+                    logger.warn("Unable to delete cached track {}.", entry.name);
+                    continue;
+                }
+
+                if (entries.remove(entry.videoId, entry)) {
+                    totalBytes.addAndGet(-entry.size);
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param maxBytes The maximum size of the cache, or 0 for no limit.
+     * @param maxFiles The maximum amount of files, or 0 for no limit.
+     * @return Whether the cache exceeds a limit.
+     */
+    private static boolean exceeds(long maxBytes, int maxFiles) {
+        return (maxBytes > 0 && totalBytes.get() > maxBytes) ||
+                (maxFiles > 0 && entries.size() > maxFiles);
+    }
+}
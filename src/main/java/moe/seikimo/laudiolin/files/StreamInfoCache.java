@@ -0,0 +1,107 @@
+package moe.seikimo.laudiolin.files;
+
+import moe.seikimo.laudiolin.Config;
+
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public final class StreamInfoCache {
+    /* Video ID/quality -> The metadata of the stream. */
+    private static final Map<String, StreamInfo> cache
+            = new ConcurrentHashMap<>();
+
+    /**
+     * The metadata of a remote stream.
+     *
+     * @param contentLength The total length of the stream.
+     * @param mimeType The format of the stream.
+     * @param expiresAt The time (in milliseconds) the metadata expires.
+     */
+    public record StreamInfo(long contentLength, String mimeType, long expiresAt) {
+        /**
+         * @return Whether the metadata should no longer be used.
+         */
+        public boolean isExpired() {
+            return System.currentTimeMillis() >= this.expiresAt;
+        }
+    }
+
+    /**
+     * Schedules the removal of expired metadata.
+     */
+    public static void initialize() {
+        var interval = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+        new Timer().scheduleAtFixedRate(
+                new PurgeTask(), interval, interval);
+    }
+
+    /**
+     * Node only distinguishes between two stream qualities.
+     *
+     * @param quality The requested quality.
+     * @return The quality Node will use.
+     */
+    public static String normalize(String quality) {
+        return "High".equals(quality) ? "High" : "Low";
+    }
+
+    /**
+     * Fetches the cached metadata of a stream.
+     *
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @return The metadata, or null if it isn't cached.
+     */
+    public static StreamInfo get(String videoId, String quality) {
+        var key = videoId + "/" + StreamInfoCache.normalize(quality);
+        var info = cache.get(key);
+        if (info == null) return null;
+
+        if (info.isExpired()) {
+            cache.remove(key, info);
+            return null;
+        }
+
+        return info;
+    }
+
+    /**
+     * Caches the metadata of a stream.
+     *
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @param contentLength The total length of the stream.
+     * @param mimeType The format of the stream.
+     * @return The cached metadata.
+     */
+    public static StreamInfo put(String videoId, String quality, long contentLength, String mimeType) {
+        var expiry = Config.get().getStorage().getStreamInfoExpiry();
+        var info = new StreamInfo(contentLength, mimeType,
+                System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(expiry, TimeUnit.SECONDS));
+
+        cache.put(videoId + "/" + StreamInfoCache.normalize(quality), info);
+        return info;
+    }
+
+    /**
+     * Removes the cached metadata of a stream.
+     * Used when the metadata turns out to be stale.
+     *
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     */
+    public static void invalidate(String videoId, String quality) {
+        cache.remove(videoId + "/" + StreamInfoCache.normalize(quality));
+    }
+
+    /** Task used for removing expired metadata. */
+    static final class PurgeTask extends TimerTask {
+        @Override
+        public void run() {
+            cache.values().removeIf(StreamInfo::isExpired);
+        }
+    }
+}
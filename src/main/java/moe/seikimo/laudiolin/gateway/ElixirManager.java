@@ -65,15 +65,15 @@ public final class ElixirManager {
 
     /**
      * Broadcasts a message to all controllers of a bot.
+     * The message is encoded once for all controllers.
      *
      * @param botId The bot ID.
      * @param guildId The guild ID.
      * @param message The message.
      */
     public static void broadcastToAll(String botId, String guildId, JsonObject message) {
-        elixirs.computeIfAbsent(botId, k -> new ConcurrentHashMap<>())
-                .computeIfAbsent(guildId, k -> new CopyOnWriteArrayList<>())
-                .forEach(s -> s.sendMessage(message));
+        Gateway.broadcast(elixirs.computeIfAbsent(botId, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(guildId, k -> new CopyOnWriteArrayList<>()), message);
     }
 
     /**
@@ -0,0 +1,75 @@
+package moe.seikimo.laudiolin.gateway;
+
+import com.google.gson.JsonObject;
+import lombok.Getter;
+import moe.seikimo.laudiolin.utils.EncodingUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A gateway message which is encoded once and shared by all recipients.
+ * Each protocol's encoding is made the first time it is needed.
+ */
+public final class EncodedMessage {
+    @Getter private final JsonObject message;
+
+    private volatile String text;
+    private volatile ByteBuffer binary;
+
+    /**
+     * Creates a new encoded message.
+     * The message shouldn't be changed afterward.
+     *
+     * @param message The message, as it is sent in the JSON protocol.
+     */
+    public EncodedMessage(JsonObject message) {
+        this.message = message;
+    }
+
+    /**
+     * @return The type of the message, or null if it has none.
+     */
+    public String getType() {
+        var type = this.message.get("type");
+        return type == null || !type.isJsonPrimitive() ? null : type.getAsString();
+    }
+
+    /**
+     * A message supersedes another of the same type if it has all of its members.
+     *
+     * @param other The other message.
+     * @return Whether the other message no longer needs to be sent.
+     */
+    public boolean supersedes(EncodedMessage other) {
+        var type = this.getType();
+        return type != null && type.equals(other.getType()) &&
+                this.message.keySet().containsAll(other.message.keySet());
+    }
+
+    /**
+     * @return The message in the JSON protocol.
+     */
+    public String text() {
+        var text = this.text;
+        if (text == null) {
+            this.text = text = EncodingUtils.jsonEncodeCompact(this.message);
+        }
+
+        return text;
+    }
+
+    /**
+     * Each call returns its own view, as sending a buffer consumes it.
+     *
+     * @return A read-only view of the message in the binary protocol.
+     */
+    public ByteBuffer binary() {
+        var binary = this.binary;
+        if (binary == null) {
+            this.binary = binary = ByteBuffer.wrap(
+                    GatewayCodec.encode(this.message)).asReadOnlyBuffer();
+        }
+
+        return binary.duplicate();
+    }
+}
@@ -2,32 +2,38 @@ package moe.seikimo.laudiolin.gateway;
 
 import com.google.gson.JsonObject;
 import io.javalin.Javalin;
+import io.javalin.websocket.WsBinaryMessageContext;
 import io.javalin.websocket.WsCloseContext;
 import io.javalin.websocket.WsConnectContext;
+import io.javalin.websocket.WsContext;
 import io.javalin.websocket.WsErrorContext;
 import io.javalin.websocket.WsMessageContext;
 import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
 import moe.seikimo.laudiolin.Laudiolin;
 import moe.seikimo.laudiolin.models.OfflineUser;
 import moe.seikimo.laudiolin.models.OnlineUser;
 import moe.seikimo.laudiolin.objects.JObject;
+import moe.seikimo.laudiolin.utils.ThreadUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class Gateway {
     @Getter private static final Logger logger
             = LoggerFactory.getLogger("Gateway");
-    private static final Map<String, GatewaySession> sessions
+    @Getter private static final Map<String, GatewaySession> sessions
             = new ConcurrentHashMap<>();
 
     @Getter private static final Map<String, List<GatewaySession>> users
@@ -42,6 +48,9 @@ public final class Gateway {
     @Getter private static final Map<String, List<String>> connected
             = new ConcurrentHashMap<>();
 
+    /* Runs message handlers off the websocket threads. */
+    @Getter private static ExecutorService executor;
+
     private static final Map<String, MessageHandler> handlers = new HashMap<>() {{
         this.put("initialize", MessageHandler::initialize);
         this.put("latency", MessageHandler::latency);
@@ -66,9 +75,13 @@ public final class Gateway {
      * @param javalin The Javalin instance.
      */
     public static void configure(Javalin javalin) {
+        Gateway.executor = ThreadUtils.newExecutor(Math.max(1,
+                Config.get().getGateway().getHandlerThreads()));
+
         javalin.ws("/", config -> {
             config.onConnect(Gateway::onConnect);
             config.onMessage(Gateway::onMessage);
+            config.onBinaryMessage(Gateway::onBinaryMessage);
             config.onClose(Gateway::onClose);
             config.onError(Gateway::onError);
         });
@@ -89,6 +102,20 @@ public final class Gateway {
         users.get(userId).add(session);
     }
 
+    /**
+     * Sends a message to many clients.
+     * The message is encoded once per protocol, and shared by all clients.
+     *
+     * @param sessions The sessions to send the message to.
+     * @param message The message to send.
+     */
+    public static void broadcast(Collection<GatewaySession> sessions, JsonObject message) {
+        if (sessions.isEmpty()) return;
+
+        var encoded = new EncodedMessage(message);
+        sessions.forEach(session -> session.sendMessage(encoded));
+    }
+
     /**
      * Handles a new client connecting.
      *
@@ -112,80 +139,139 @@ public final class Gateway {
      */
     private static void onMessage(WsMessageContext ctx) {
         try {
-            // Get the client session.
-            var session = Gateway.sessions.get(ctx.getSessionId());
-            if (session == null) {
-                // The client is not connected.
-                ctx.closeSession();
-                ctx.send(GATEWAY_NOT_INITIALIZED());
-                return;
-            }
-
             // Parse the message.
             var content = ctx.messageAsClass(JsonObject.class);
             if (content == null) return;
 
-            // Check if the client has initialized.
-            var messageType = content.get("type").getAsString();
-            if (!session.isInitialized() && !messageType.equals("initialize")) {
-                ctx.send(GATEWAY_NOT_INITIALIZED());
-                ctx.closeSession();
-                return;
-            }
-
-            // Attempt to pre-handle the message.
-            var preHandlers = session.getListeners().get(messageType);
-            if (preHandlers != null && !preHandlers.isEmpty()) {
-                var shouldSkip = new AtomicBoolean(false);
-                preHandlers.forEach(handler -> {
-                    if (!shouldSkip.get()) shouldSkip.set(handler.apply(content));
-                });
-                preHandlers.clear();
-
-                if (shouldSkip.get()) return;
-            }
-
-            // Attempt to handle the message.
-            var handler = Gateway.handlers.get(messageType);
-            if (handler == null) {
-                ctx.send(GATEWAY_UNKNOWN_MESSAGE(content));
-                ctx.closeSession();
-
-                logger.warn("Unknown gateway message received from {}: {}",
-                        ctx.getSessionId(), messageType);
-            } else try {
-                handler.handle(session, content);
-            } catch (Exception exception) {
-                // This is thrown when a JSON parsing error occurs.
-                ctx.send(GATEWAY_UNKNOWN_MESSAGE(content));
-                ctx.closeSession();
-
-                logger.warn("Encountered error while handling message {} from {}: {}.",
-                        messageType, ctx.getSessionId(), exception.getMessage());
-                logger.warn("Message handling exception caught!", exception);
-            }
+            Gateway.dispatch(ctx, content);
         } catch (Exception ignored) {
             ctx.send(INVALID_JSON()); // Send an error message.
             ctx.closeSession(); // Close the session.
         }
     }
 
+    /**
+     * Handles a client sending a message in the binary protocol.
+     *
+     * @param ctx The context.
+     */
+    private static void onBinaryMessage(WsBinaryMessageContext ctx) {
+        try {
+            // Decode the frame.
+            var content = GatewayCodec.decode(
+                    ctx.data(), ctx.offset(), ctx.length());
+            if (content == null) return;
+
+            Gateway.dispatch(ctx, content);
+        } catch (Exception ignored) {
+            ctx.send(INVALID_JSON()); // Send an error message.
+            ctx.closeSession(); // Close the session.
+        }
+    }
+
+    /**
+     * Queues a message to be handled in the client's mailbox.
+     * Clients which send messages without a type, or faster than they
+     * are handled, are disconnected.
+     *
+     * @param ctx The context.
+     * @param content The message, as it is sent in the JSON protocol.
+     */
+    private static void dispatch(WsContext ctx, JsonObject content) {
+        // Check that the message has a type.
+        var type = content.get("type");
+        if (type == null || !type.isJsonPrimitive() ||
+                !type.getAsJsonPrimitive().isString()) {
+            ctx.send(INVALID_JSON()); // Send an error message.
+            ctx.closeSession(); // Close the session.
+            return;
+        }
+
+        var session = Gateway.sessions.get(ctx.getSessionId());
+        if (session == null) {
+            // The client is not connected.
+            ctx.send(GATEWAY_NOT_INITIALIZED());
+            ctx.closeSession();
+            return;
+        }
+
+        if (!session.getMailbox().offer(() -> Gateway.handle(session, ctx, content))) {
+            logger.debug("Disconnecting {}, as its mailbox is full.", ctx.getSessionId());
+            ctx.closeSession();
+        }
+    }
+
+    /**
+     * Dispatches a message to its handler.
+     * Replies go through the session, as the client may have disconnected.
+     *
+     * @param session The session which received the message.
+     * @param ctx The context.
+     * @param content The message, as it is sent in the JSON protocol.
+     */
+    private static void handle(GatewaySession session, WsContext ctx, JsonObject content) {
+        // Check if the client has initialized.
+        var messageType = content.get("type").getAsString();
+        if (!session.isInitialized() && !messageType.equals("initialize")) {
+            session.sendMessage(GATEWAY_NOT_INITIALIZED());
+            session.disconnect();
+            return;
+        }
+
+        // Attempt to pre-handle the message.
+        var preHandlers = session.getListeners().get(messageType);
+        if (preHandlers != null && !preHandlers.isEmpty()) {
+            var shouldSkip = new AtomicBoolean(false);
+            preHandlers.forEach(handler -> {
+                if (!shouldSkip.get()) shouldSkip.set(handler.apply(content));
+            });
+            preHandlers.clear();
+
+            if (shouldSkip.get()) return;
+        }
+
+        // Attempt to handle the message.
+        var handler = Gateway.handlers.get(messageType);
+        if (handler == null) {
+            session.sendMessage(GATEWAY_UNKNOWN_MESSAGE(content));
+            session.disconnect();
+
+            logger.warn("Unknown gateway message received from {}: {}",
+                    ctx.getSessionId(), messageType);
+        } else try {
+            handler.handle(session, content);
+        } catch (Exception exception) {
+            // This is thrown when a JSON parsing error occurs.
+            session.sendMessage(GATEWAY_UNKNOWN_MESSAGE(content));
+            session.disconnect();
+
+            logger.warn("Encountered error while handling message {} from {}: {}.",
+                    messageType, ctx.getSessionId(), exception.getMessage());
+            logger.warn("Message handling exception caught!", exception);
+        }
+    }
+
     /**
      * Handles a client disconnecting.
      *
      * @param ctx The context.
      */
     private static void onClose(WsCloseContext ctx) {
-        // Remove the client session.
-        var session = Gateway.sessions.remove(ctx.getSessionId());
+        var session = Gateway.sessions.get(ctx.getSessionId());
         if (session == null) return;
 
-        // Remove the client session from users.
-        var allUsers = Gateway.getUsers();
-        var userCollection = allUsers.get(session.getId());
-        if (userCollection != null) userCollection.remove(session);
+        // Clean up after the pending messages are handled.
+        session.getMailbox().close(() -> {
+            // Remove the client session.
+            Gateway.sessions.remove(ctx.getSessionId(), session);
+
+            // Remove the client session from users.
+            var allUsers = Gateway.getUsers();
+            var userCollection = allUsers.get(session.getId());
+            if (userCollection != null) userCollection.remove(session);
 
-        session.onDisconnect();
+            session.onDisconnect();
+        });
     }
 
     /**
@@ -0,0 +1,273 @@
+package moe.seikimo.laudiolin.gateway;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.protobuf.InvalidProtocolBufferException;
+import moe.seikimo.laudiolin.Messages.GatewayFrame;
+import moe.seikimo.laudiolin.Messages.GatewayLatency;
+import moe.seikimo.laudiolin.Messages.GatewayPlayer;
+import moe.seikimo.laudiolin.Messages.GatewaySeek;
+import moe.seikimo.laudiolin.Messages.GatewaySync;
+import moe.seikimo.laudiolin.Messages.GatewayTrack;
+import moe.seikimo.laudiolin.Messages.GatewayVolume;
+import moe.seikimo.laudiolin.objects.JObject;
+import moe.seikimo.laudiolin.utils.EncodingUtils;
+
+import java.util.Set;
+
+/**
+ * Converts gateway messages between the JSON and binary protocols.
+ * Frequent player messages have their own frames; all other messages
+ * are carried as JSON inside a frame.
+ */
+public interface GatewayCodec {
+    /* The protocol names clients can request during 'initialize'. */
+    String PROTOCOL_JSON = "json";
+    String PROTOCOL_BINARY = "protobuf";
+
+    /* The members each message type may have to be sent as its own frame. */
+    Set<String> LATENCY_KEYS = Set.of("type", "code", "message", "timestamp", "latency");
+    Set<String> SEEK_KEYS = Set.of("type", "seek");
+    Set<String> PLAYER_KEYS = Set.of("type", "track", "seek", "paused");
+    Set<String> VOLUME_KEYS = Set.of("type", "volume");
+    Set<String> SYNC_KEYS = Set.of("type", "track", "progress", "paused", "seek", "timestamp");
+    Set<String> TRACK_KEYS = Set.of("id", "title", "artist", "icon", "url", "duration", "local");
+
+    /**
+     * Encodes a message into a binary frame.
+     *
+     * @param message The message, as it is sent in the JSON protocol.
+     * @return The encoded frame.
+     */
+    static byte[] encode(JsonObject message) {
+        return GatewayCodec.toFrame(message).toByteArray();
+    }
+
+    /**
+     * Decodes a binary frame into a message.
+     *
+     * @param data The buffer containing the frame.
+     * @param offset The offset of the frame in the buffer.
+     * @param length The length of the frame.
+     * @return The message, as it is sent in the JSON protocol.
+     */
+    static JsonObject decode(byte[] data, int offset, int length)
+            throws InvalidProtocolBufferException {
+        return GatewayCodec.toJson(GatewayFrame.parser()
+                .parseFrom(data, offset, length));
+    }
+
+    /**
+     * Converts a message to a binary frame.
+     * Messages with unexpected or malformed members are carried as JSON.
+     *
+     * @param message The message, as it is sent in the JSON protocol.
+     * @return The frame.
+     */
+    static GatewayFrame toFrame(JsonObject message) {
+        try {
+            var frame = GatewayCodec.toTypedFrame(message);
+            if (frame != null) return frame;
+        } catch (RuntimeException ignored) {
+            // A member has an unexpected type or is missing.
+        }
+
+        return GatewayFrame.newBuilder()
+                .setTimestamp(System.currentTimeMillis())
+                .setJson(EncodingUtils.jsonEncodeCompact(message))
+                .build();
+    }
+
+    /**
+     * Converts a message to its own binary frame.
+     *
+     * @param message The message, as it is sent in the JSON protocol.
+     * @return The frame, or null if the message has unexpected members.
+     * @throws RuntimeException If a member can't be converted.
+     */
+    private static GatewayFrame toTypedFrame(JsonObject message) {
+        var frame = GatewayFrame.newBuilder()
+                .setTimestamp(message.has("timestamp") ?
+                        message.get("timestamp").getAsLong() :
+                        System.currentTimeMillis());
+
+        var type = message.has("type") ? message.get("type").getAsString() : "";
+        switch (type) {
+            case "latency" -> {
+                if (!GatewayCodec.only(message, LATENCY_KEYS) ||
+                        (message.has("code") && message.get("code").getAsInt() != 0)) break;
+                return frame.setLatency(GatewayLatency.newBuilder()
+                        .setLatency(message.has("latency") ?
+                                message.get("latency").getAsLong() : 0))
+                        .build();
+            }
+            case "seek" -> {
+                if (!GatewayCodec.only(message, SEEK_KEYS)) break;
+                return frame.setSeek(GatewaySeek.newBuilder()
+                        .setSeek(message.get("seek").getAsFloat()))
+                        .build();
+            }
+            case "player" -> {
+                if (!GatewayCodec.only(message, PLAYER_KEYS) ||
+                        !message.has("track")) break;
+
+                var player = GatewayPlayer.newBuilder()
+                        .setSeek(message.get("seek").getAsFloat())
+                        .setPaused(message.get("paused").getAsBoolean());
+                var track = GatewayCodec.toTrack(message.get("track"));
+                if (track != null) player.setTrack(track);
+
+                return frame.setPlayer(player).build();
+            }
+            case "volume" -> {
+                if (!GatewayCodec.only(message, VOLUME_KEYS)) break;
+                return frame.setVolume(GatewayVolume.newBuilder()
+                        .setVolume(message.get("volume").getAsInt()))
+                        .build();
+            }
+            case "sync" -> {
+                if (!GatewayCodec.only(message, SYNC_KEYS)) break;
+
+                var sync = GatewaySync.newBuilder()
+                        .setProgress(message.get("progress").getAsFloat())
+                        .setPaused(message.get("paused").getAsBoolean())
+                        .setSeek(message.has("seek") && message.get("seek").getAsBoolean())
+                        .setDelta(!message.has("track"));
+                var track = GatewayCodec.toTrack(message.get("track"));
+                if (track != null) sync.setTrack(track);
+
+                return frame.setSync(sync).build();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts a binary frame to a message.
+     *
+     * @param frame The frame.
+     * @return The message, as it is sent in the JSON protocol.
+     */
+    static JsonObject toJson(GatewayFrame frame) {
+        return switch (frame.getPayloadCase()) {
+            case JSON -> JsonParser.parseString(frame.getJson()).getAsJsonObject();
+            case LATENCY -> JObject.c()
+                    .add("type", "latency")
+                    .add("code", 0)
+                    .add("message", "")
+                    .add("timestamp", frame.getTimestamp())
+                    .add("latency", frame.getLatency().getLatency())
+                    .gson();
+            case SEEK -> JObject.c()
+                    .add("type", "seek")
+                    .add("seek", frame.getSeek().getSeek())
+                    .gson();
+            case PLAYER -> {
+                var player = frame.getPlayer();
+                var message = JObject.c()
+                        .add("type", "player")
+                        .add("seek", player.getSeek())
+                        .add("paused", player.getPaused())
+                        .add("track", player.hasTrack() ?
+                                GatewayCodec.toJson(player.getTrack()) : JsonNull.INSTANCE);
+
+                yield message.gson();
+            }
+            case VOLUME -> JObject.c()
+                    .add("type", "volume")
+                    .add("volume", frame.getVolume().getVolume())
+                    .gson();
+            case SYNC -> {
+                var sync = frame.getSync();
+                var message = JObject.c()
+                        .add("type", "sync")
+                        .add("progress", sync.getProgress())
+                        .add("paused", sync.getPaused())
+                        .add("seek", sync.getSeek())
+                        .add("timestamp", frame.getTimestamp());
+                if (!sync.getDelta()) {
+                    message.add("track", sync.hasTrack() ?
+                            GatewayCodec.toJson(sync.getTrack()) : JsonNull.INSTANCE);
+                }
+
+                yield message.gson();
+            }
+            case PAYLOAD_NOT_SET -> null;
+        };
+    }
+
+    /**
+     * @param element The track, as it is sent in the JSON protocol.
+     * @return The track, or null if there is none.
+     * @throws IllegalArgumentException If the track has unexpected members.
+     */
+    private static GatewayTrack toTrack(JsonElement element) {
+        if (element == null || element.isJsonNull()) return null;
+
+        var track = element.getAsJsonObject();
+        if (!GatewayCodec.only(track, TRACK_KEYS))
+            throw new IllegalArgumentException("The track has unexpected members.");
+
+        var builder = GatewayTrack.newBuilder()
+                .setDuration(track.has("duration") && !track.get("duration").isJsonNull() ?
+                        track.get("duration").getAsInt() : 0)
+                .setLocal(track.has("local") && !track.get("local").isJsonNull() &&
+                        track.get("local").getAsBoolean());
+
+        // Null strings are left unset.
+        var id = GatewayCodec.string(track, "id");
+        if (id != null) builder.setId(id);
+        var title = GatewayCodec.string(track, "title");
+        if (title != null) builder.setTitle(title);
+        var artist = GatewayCodec.string(track, "artist");
+        if (artist != null) builder.setArtist(artist);
+        var icon = GatewayCodec.string(track, "icon");
+        if (icon != null) builder.setIcon(icon);
+        var url = GatewayCodec.string(track, "url");
+        if (url != null) builder.setUrl(url);
+
+        return builder.build();
+    }
+
+    /**
+     * @param track The track.
+     * @return The track, as it is sent in the JSON protocol.
+     */
+    private static JsonObject toJson(GatewayTrack track) {
+        return JObject.c()
+                .add("id", track.hasId() ? track.getId() : null)
+                .add("title", track.hasTitle() ? track.getTitle() : null)
+                .add("artist", track.hasArtist() ? track.getArtist() : null)
+                .add("icon", track.hasIcon() ? track.getIcon() : null)
+                .add("url", track.hasUrl() ? track.getUrl() : null)
+                .add("duration", track.getDuration())
+                .add("local", track.getLocal())
+                .gson();
+    }
+
+    /**
+     * @param message The message.
+     * @param keys The members the message may have.
+     * @return Whether the message has no other members.
+     */
+    private static boolean only(JsonObject message, Set<String> keys) {
+        for (var key : message.keySet()) {
+            if (!keys.contains(key)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param object The object.
+     * @param key The member to read.
+     * @return The member as a string, or null if it is missing.
+     */
+    private static String string(JsonObject object, String key) {
+        var element = object.get(key);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+}
@@ -3,6 +3,7 @@ package moe.seikimo.laudiolin.gateway;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import lombok.Data;
+import moe.seikimo.laudiolin.files.PreCache;
 import moe.seikimo.laudiolin.models.OfflineUser;
 import moe.seikimo.laudiolin.models.OnlineUser;
 import moe.seikimo.laudiolin.models.data.TrackData;
@@ -11,7 +12,6 @@ import moe.seikimo.laudiolin.objects.DiscordPresence;
 import moe.seikimo.laudiolin.objects.JObject;
 import moe.seikimo.laudiolin.objects.user.PresenceMode;
 import moe.seikimo.laudiolin.objects.user.SocialStatus;
-import moe.seikimo.laudiolin.utils.EncodingUtils;
 import org.eclipse.jetty.websocket.api.Session;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 import static moe.seikimo.laudiolin.gateway.Gateway.GATEWAY_INIT;
@@ -38,7 +39,11 @@ public final class GatewaySession {
 
     // Internal gateway properties.
     private boolean initialized = false;
+    private boolean binary = false; // Whether messages are sent as protobuf frames.
+    private boolean syncDeltas = false; // Whether syncs may leave out an unchanged track.
     private long lastPing = System.currentTimeMillis();
+    private final Outbox outbox = new Outbox(this);
+    private final Mailbox mailbox = new Mailbox();
     private final Map<String, List<Function<JsonObject, Boolean>>> listeners = new HashMap<>();
 
     // The user's broadcasting settings.
@@ -52,6 +57,7 @@ public final class GatewaySession {
     private boolean paused = true;
     @Nullable private TrackData trackData = null;
     @Nullable private Long startedListening = 0L;
+    private long positionReportedAt = 0; // The time the track position was last reported.
 
     // The user's social properties.
     private long lastUpdateTime = 0;
@@ -60,6 +66,10 @@ public final class GatewaySession {
     private List<GatewaySession> listeningAlong = new CopyOnWriteArrayList<>();
     @Nullable private GatewaySession listeningWith = null;
 
+    // The player state last sent to listeners.
+    private final AtomicBoolean syncScheduled = new AtomicBoolean(false);
+    @Nullable private SyncScheduler.Snapshot lastSync = null;
+
     /**
      * Fetches the user associated with this session.
      */
@@ -91,9 +101,10 @@ public final class GatewaySession {
 
     /**
      * Attempts to disconnect the client.
+     * Messages sent before are written first.
      */
     public void disconnect() {
-        this.session.close();
+        this.outbox.closeWhenDrained();
     }
 
     /**
@@ -110,6 +121,12 @@ public final class GatewaySession {
      * Fires when the client disconnects.
      */
     public void onDisconnect() {
+        // Discard the messages which can no longer be sent.
+        this.outbox.close();
+
+        // Stop warming the cache for the client.
+        PreCache.clear(this.getId());
+
         // Check if the client is listening along.
         if (this.getListeningWith() != null) {
             this.stopListening(false);
@@ -211,20 +228,31 @@ public final class GatewaySession {
         var target = this.getListeningWith();
         if (target == null) return;
 
-        this.sendMessage(JObject.c()
-                .add("type", "sync")
-                .add("track", target.getTrackData())
-                .add("progress", target.getTrackPosition())
-                .add("paused", target.isPaused())
-                .add("seek", seek));
+        this.sendMessage(target.syncMessage(seek));
     }
 
     /**
      * Syncs listeners with the client.
+     * Rapid changes are coalesced into a single sync.
      */
     public void updateListeners() {
-        this.getListeningAlong().forEach(session ->
-                session.syncWith(true));
+        SyncScheduler.schedule(this);
+    }
+
+    /**
+     * @param seek Should listeners seek to the client's position?
+     * @return The message which syncs a listener with the client.
+     */
+    public JsonObject syncMessage(boolean seek) {
+        return JObject.c()
+                .add("type", "sync")
+                .add("track", this.getTrackData())
+                .add("progress", this.getTrackPosition())
+                .add("paused", this.isPaused())
+                .add("seek", seek)
+                .add("timestamp", this.getPositionReportedAt() > 0 ?
+                        this.getPositionReportedAt() : System.currentTimeMillis())
+                .gson();
     }
 
     /**
@@ -330,25 +358,22 @@ public final class GatewaySession {
 
     /**
      * Attempts to send the client a message.
-     * The message is JSON-encoded.
+     * The message is encoded in the client's protocol.
      *
      * @param message The message to send.
      */
     public void sendMessage(JsonObject message) {
-        this.sendMessage(EncodingUtils.jsonEncode(message));
+        this.sendMessage(new EncodedMessage(message));
     }
 
     /**
-     * Attempts to send the client a message.
+     * Queues an encoded message to be sent to the client.
+     * The encoding of the client's protocol is used.
      *
-     * @param data The message to send.
+     * @param message The message to send.
      */
-    public void sendMessage(String data) {
-        try {
-            this.getSession().getRemote().sendString(data);
-        } catch (Exception ignored) {
-            this.getSession().close(); // Close the session.
-        }
+    public void sendMessage(EncodedMessage message) {
+        this.outbox.offer(message);
     }
 
     @Override
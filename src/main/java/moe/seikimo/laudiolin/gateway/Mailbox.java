@@ -0,0 +1,159 @@
+package moe.seikimo.laudiolin.gateway;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The messages waiting to be handled for a gateway client.
+ * Messages are handled on the gateway's executor, one at a time and in order,
+ * so blocking handlers never hold up the websocket threads.
+ */
+public final class Mailbox implements Runnable {
+    /* The amount of messages handled before the thread is given to other clients. */
+    private static final int BATCH_SIZE = 16;
+
+    @Getter private static final AtomicLong totalHandled = new AtomicLong();
+    @Getter private static final AtomicLong totalRejected = new AtomicLong();
+
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    /* A lock doesn't pin virtual threads, unlike synchronized. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /* Whether the mailbox is scheduled on the executor. */
+    private boolean running = false;
+    private boolean closed = false;
+
+    @Getter private volatile int highWater = 0;
+
+    /**
+     * Queues a task to run after all previously queued tasks.
+     * Tasks are run inline if the gateway has no executor.
+     *
+     * @param task The task.
+     * @return False if the mailbox is full or closed.
+     */
+    public boolean offer(Runnable task) {
+        var maxSize = Config.get().getGateway().getMaxMailboxSize();
+
+        this.lock.lock();
+        try {
+            if (this.closed) return false;
+            if (maxSize > 0 && this.queue.size() >= maxSize) {
+                totalRejected.incrementAndGet();
+                return false;
+            }
+
+            this.queue.addLast(task);
+            this.highWater = Math.max(this.highWater, this.queue.size());
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.schedule();
+        return true;
+    }
+
+    /**
+     * Queues a final task, regardless of the size limit.
+     * Tasks offered afterward are rejected.
+     *
+     * @param task The task.
+     */
+    public void close(Runnable task) {
+        this.lock.lock();
+        try {
+            if (this.closed) return;
+
+            this.closed = true;
+            this.queue.addLast(task);
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.schedule();
+    }
+
+    /**
+     * @return The amount of tasks waiting to run.
+     */
+    public int getDepth() {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (var i = 0; i < BATCH_SIZE; i++) {
+            Runnable task;
+
+            this.lock.lock();
+            try {
+                task = this.queue.pollFirst();
+                if (task == null) {
+                    this.running = false;
+                    return;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (Exception exception) {
+                Gateway.getLogger().warn("Failed to handle a gateway message.", exception);
+            }
+            totalHandled.incrementAndGet();
+        }
+
+        // Let other clients run before continuing.
+        this.submit();
+    }
+
+    /**
+     * Starts running tasks if the mailbox isn't already.
+     */
+    private void schedule() {
+        this.lock.lock();
+        try {
+            if (this.running) return;
+            this.running = true;
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.submit();
+    }
+
+    /**
+     * Submits the mailbox to the gateway's executor.
+     */
+    private void submit() {
+        var executor = Gateway.getExecutor();
+        if (executor == null) {
+            this.run();
+            return;
+        }
+
+        try {
+            executor.execute(this);
+        } catch (Exception exception) {
+            // The executor was shut down.
+            this.lock.lock();
+            try {
+                this.running = false;
+                this.queue.clear();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+}
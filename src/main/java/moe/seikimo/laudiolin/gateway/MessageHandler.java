@@ -2,6 +2,8 @@ package moe.seikimo.laudiolin.gateway;
 
 import com.google.gson.JsonObject;
 import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.UserCache;
+import moe.seikimo.laudiolin.files.PreCache;
 import moe.seikimo.laudiolin.models.ElixirMessages;
 import moe.seikimo.laudiolin.models.InitializeMessage;
 import moe.seikimo.laudiolin.models.data.TrackData;
@@ -41,11 +43,14 @@ public interface MessageHandler {
         // Extract message information.
         var data = EncodingUtils.jsonDecode(
                 message, InitializeMessage.class);
+        var binary = GatewayCodec.PROTOCOL_BINARY.equals(data.getProtocol());
+        session.setSyncDeltas(data.isSyncDeltas());
 
         // Check if the connection is an Elixir.
         if (Config.get().elixir.getToken()
                 .equals(data.getToken())) {
             session.setInitialized(true); // Initialize the user.
+            session.setBinary(binary); // Set the protocol.
             session.setBotId(data.getBotId()); // Set the bot ID.
             session.setGuildId(data.getGuildId()); // Set the guild ID.
             Gateway.addUser(data.getGuildId(), session); // Add the user to the connected users list.
@@ -80,6 +85,7 @@ public interface MessageHandler {
         Gateway.addUser(user.getUserId(), session);
 
         session.setInitialized(true); // Mark the client as initialized.
+        session.setBinary(binary); // Switch to the requested protocol.
         session.pingClient(); // Ping the client.
     }
 
@@ -108,6 +114,9 @@ public interface MessageHandler {
             ElixirManager.broadcastToAll(session, JObject.c()
                     .add("type", "synchronize")
                     .add("position", seek));
+        } else {
+            // Update the listeners of the user.
+            session.updateListeners();
         }
     }
 
@@ -156,7 +165,8 @@ public interface MessageHandler {
 
             // Add the track to the user's recently played.
             var user = session.getUser();
-            var recents = user.getRecentlyPlayed();
+            // Copy the list, as a pending write may be reading it.
+            var recents = new ArrayList<>(user.getRecentlyPlayed());
             var newList = new ArrayList<TrackData>();
 
             if (!recents.isEmpty()) {
@@ -178,9 +188,9 @@ public interface MessageHandler {
                 newList.add(track);
             }
 
-            // Apply and save the changes.
+            // Apply the changes; they are written in the background.
             user.setRecentlyPlayed(newList);
-            user.save();
+            UserCache.saveRecents(user);
 
             // Send a gateway message.
             var response = JObject.c()
@@ -188,8 +198,8 @@ public interface MessageHandler {
                     .add("recents", newList)
                     .add("timestamp", System.currentTimeMillis());
             // Send the message to all clients.
-            Gateway.getConnectedUsers(user.getUserId())
-                    .forEach(s -> s.sendMessage(response));
+            Gateway.broadcast(Gateway.getConnectedUsers(
+                    user.getUserId()), response.gson());
         }
 
         // Update the user's player information.
@@ -199,6 +209,9 @@ public interface MessageHandler {
         session.setTrackPosition(seek);
         session.setPaused(paused);
 
+        // Warm the cache for the new track.
+        if (newTrack) PreCache.update(session.getId(), track, null);
+
         // Update the listeners of the user.
         session.updateListeners();
         // update the user's online status.
@@ -384,6 +397,10 @@ public interface MessageHandler {
         var message = EncodingUtils.jsonDecode(
                 raw, ElixirMessages.Queue.class);
 
+        // Warm the cache for the upcoming tracks.
+        PreCache.update(session.getId(),
+                session.getTrackData(), message.getQueue());
+
         // Broadcast the synchronization.
         ElixirManager.broadcastToAll(session, JObject.c()
                 .add("type", "synchronize")
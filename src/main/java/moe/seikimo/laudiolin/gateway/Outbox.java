@@ -0,0 +1,225 @@
+package moe.seikimo.laudiolin.gateway;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The messages waiting to be sent to a gateway client.
+ * Messages are written asynchronously, one at a time and in order,
+ * so a slow client never blocks the thread which sent it a message.
+ */
+public final class Outbox implements WriteCallback {
+    /* Messages which only describe the latest state; older copies are replaced. */
+    private static final Set<String> COALESCED = Set.of("sync", "synchronize", "volume");
+
+    @Getter private static final AtomicLong totalSent = new AtomicLong();
+    @Getter private static final AtomicLong totalCoalesced = new AtomicLong();
+    @Getter private static final AtomicLong totalDropped = new AtomicLong();
+    @Getter private static final AtomicLong totalDisconnected = new AtomicLong();
+
+    private final GatewaySession session;
+    private final Deque<EncodedMessage> queue = new ArrayDeque<>();
+    /* A lock doesn't pin virtual threads, unlike synchronized. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /* Whether a message is being written, and whether a thread is writing messages. */
+    private boolean writing = false;
+    private boolean draining = false;
+    /* Whether the session is closed once the pending messages are written. */
+    private boolean closing = false;
+    private boolean closed = false;
+
+    @Getter private final AtomicLong sent = new AtomicLong();
+    @Getter private final AtomicLong coalesced = new AtomicLong();
+    @Getter private final AtomicLong dropped = new AtomicLong();
+    @Getter private volatile int highWater = 0;
+
+    /**
+     * @param session The session the messages are sent to.
+     */
+    Outbox(GatewaySession session) {
+        this.session = session;
+    }
+
+    /**
+     * Queues a message to be sent.
+     * Pending state messages which it supersedes are removed.
+     * If the queue is full, the client is disconnected or its oldest message is dropped.
+     *
+     * @param message The message.
+     */
+    public void offer(EncodedMessage message) {
+        var config = Config.get().getGateway();
+        var disconnect = false;
+
+        this.lock.lock();
+        try {
+            if (this.closed || this.closing) return;
+
+            // Replace the outdated state.
+            var type = message.getType();
+            if (type != null && COALESCED.contains(type) &&
+                    this.queue.removeIf(message::supersedes)) {
+                this.coalesced.incrementAndGet();
+                totalCoalesced.incrementAndGet();
+            }
+
+            var maxQueued = config.getMaxQueuedMessages();
+            if (maxQueued > 0 && this.queue.size() >= maxQueued) {
+                if (config.isDisconnectLaggards()) {
+                    disconnect = this.closed = true;
+                    this.queue.clear();
+                } else {
+                    this.queue.pollFirst();
+                    this.dropped.incrementAndGet();
+                    totalDropped.incrementAndGet();
+                }
+            }
+
+            if (!disconnect) {
+                this.queue.addLast(message);
+                this.highWater = Math.max(this.highWater, this.queue.size());
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (disconnect) {
+            totalDisconnected.incrementAndGet();
+            Gateway.getLogger().debug("Disconnecting {}, as it fell too far behind.",
+                    this.session.getSession().getRemoteAddress());
+            this.session.getSession().close();
+            return;
+        }
+
+        this.drain();
+    }
+
+    /**
+     * Discards all pending messages.
+     * Messages offered afterward are ignored.
+     */
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.queue.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the session once the pending messages are written.
+     * Messages offered afterward are ignored.
+     */
+    public void closeWhenDrained() {
+        this.lock.lock();
+        try {
+            if (this.closed) return;
+            this.closing = true;
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.drain();
+    }
+
+    /**
+     * @return The amount of messages waiting to be sent.
+     */
+    public int getDepth() {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes messages until the queue is empty or a write is pending.
+     * Writes which complete during the loop continue it instead of recursing.
+     */
+    private void drain() {
+        this.lock.lock();
+        try {
+            if (this.draining) return;
+            this.draining = true;
+        } finally {
+            this.lock.unlock();
+        }
+
+        while (true) {
+            EncodedMessage next;
+            var close = false;
+
+            this.lock.lock();
+            try {
+                if (this.writing || this.closed) {
+                    this.draining = false;
+                    return;
+                }
+
+                next = this.queue.pollFirst();
+                if (next == null) {
+                    this.draining = false;
+                    close = this.closed = this.closing;
+                } else {
+                    this.writing = true;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (next == null) {
+                // All messages were written before closing.
+                if (close) this.session.getSession().close();
+                return;
+            }
+
+            // Encode the message in the client's protocol.
+            var remote = this.session.getSession().getRemote();
+            try {
+                if (this.session.isBinary()) {
+                    remote.sendBytes(next.binary(), this);
+                } else {
+                    remote.sendString(next.text(), this);
+                }
+            } catch (Exception exception) {
+                this.writeFailed(exception);
+            }
+        }
+    }
+
+    @Override
+    public void writeSuccess() {
+        this.sent.incrementAndGet();
+        totalSent.incrementAndGet();
+
+        var resume = false;
+        this.lock.lock();
+        try {
+            this.writing = false;
+            resume = !this.draining;
+        } finally {
+            this.lock.unlock();
+        }
+
+        // A running drain writes the next message itself.
+        if (resume) this.drain();
+    }
+
+    @Override
+    public void writeFailed(Throwable throwable) {
+        this.close();
+        this.session.getSession().close();
+    }
+}
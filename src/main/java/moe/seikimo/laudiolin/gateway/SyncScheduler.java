@@ -0,0 +1,136 @@
+package moe.seikimo.laudiolin.gateway;
+
+import lombok.Getter;
+import moe.seikimo.laudiolin.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class SyncScheduler {
+    @Getter private static final Logger logger
+            = LoggerFactory.getLogger("Sync Scheduler");
+
+    @Getter private static final AtomicLong changes = new AtomicLong();
+    @Getter private static final AtomicLong full = new AtomicLong();
+    @Getter private static final AtomicLong deltas = new AtomicLong();
+    @Getter private static final AtomicLong skipped = new AtomicLong();
+
+    private static ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The player state of a host, as it was last sent to listeners.
+     *
+     * @param trackId The ID of the track, or null if none was playing.
+     * @param progress The position (in seconds) of the track.
+     * @param paused Whether the track was paused.
+     * @param timestamp The time (in milliseconds) the position was reported.
+     * @param sentAt The time (in milliseconds) the state was sent.
+     */
+    record Snapshot(String trackId, float progress, boolean paused, long timestamp, long sentAt) {
+        /**
+         * @param time The time (in milliseconds).
+         * @return The position listeners expect the track to be at.
+         */
+        float positionAt(long time) {
+            return this.paused ? this.progress :
+                    this.progress + (time - this.timestamp) / 1000f;
+        }
+    }
+
+    /**
+     * Creates the thread which sends syncs.
+     */
+    public static void initialize() {
+        SyncScheduler.executor = new ScheduledThreadPoolExecutor(1);
+    }
+
+    /**
+     * Records a change to a host's player.
+     * Changes within a short window are sent to listeners as one sync.
+     *
+     * @param host The session of the host.
+     */
+    public static void schedule(GatewaySession host) {
+        var now = System.currentTimeMillis();
+        host.setPositionReportedAt(now);
+        if (host.getListeningAlong().isEmpty()) return;
+
+        changes.incrementAndGet();
+        if (executor == null) {
+            SyncScheduler.flush(host);
+            return;
+        }
+
+        // A sync is already waiting to be sent.
+        if (!host.getSyncScheduled().compareAndSet(false, true)) return;
+
+        // Wait for more changes, but don't sync more often than allowed.
+        var config = Config.get().getGateway();
+        var delay = Math.max(0, config.getSyncWindow());
+        var last = host.getLastSync();
+        if (last != null) {
+            delay = Math.max(delay, last.sentAt() + config.getSyncInterval() - now);
+        }
+
+        executor.schedule(() -> {
+            try {
+                SyncScheduler.flush(host);
+            } catch (Exception exception) {
+                logger.warn("Failed to sync the listeners of {}.", host.getId(), exception);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the host's player state to its listeners.
+     * Nothing is sent if listeners can extrapolate the state from the last sync.
+     *
+     * @param host The session of the host.
+     */
+    private static void flush(GatewaySession host) {
+        host.getSyncScheduled().set(false);
+
+        var listeners = host.getListeningAlong();
+        if (listeners.isEmpty()) return;
+
+        var track = host.getTrackData();
+        var snapshot = new Snapshot(track == null ? null : track.getId(),
+                host.getTrackPosition(), host.isPaused(),
+                host.getPositionReportedAt(), System.currentTimeMillis());
+
+        // Check if the listeners are already in sync.
+        var last = host.getLastSync();
+        var sameTrack = last != null && Objects.equals(last.trackId(), snapshot.trackId());
+        if (sameTrack && last.paused() == snapshot.paused() &&
+                Math.abs(last.positionAt(snapshot.timestamp()) - snapshot.progress())
+                        <= Config.get().getGateway().getSyncTolerance()) {
+            skipped.incrementAndGet();
+            return;
+        }
+        host.setLastSync(snapshot);
+
+        var message = host.syncMessage(true);
+        if (!sameTrack) {
+            full.incrementAndGet();
+            Gateway.broadcast(listeners, message);
+            return;
+        }
+
+        // Leave out the track for clients which accept it.
+        var delta = message.deepCopy();
+        delta.remove("track");
+
+        var legacy = new ArrayList<GatewaySession>();
+        var modern = new ArrayList<GatewaySession>();
+        listeners.forEach(listener -> (listener.isSyncDeltas() ? modern : legacy).add(listener));
+
+        deltas.incrementAndGet();
+        Gateway.broadcast(legacy, message);
+        Gateway.broadcast(modern, delta);
+    }
+}
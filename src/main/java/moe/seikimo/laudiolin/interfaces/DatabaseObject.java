@@ -1,8 +1,13 @@
 package moe.seikimo.laudiolin.interfaces;
 
 import com.google.gson.JsonObject;
+import dev.morphia.UpdateOptions;
+import dev.morphia.query.filters.Filters;
+import dev.morphia.query.updates.UpdateOperator;
 import moe.seikimo.laudiolin.Laudiolin;
 
+import java.util.List;
+
 @SuppressWarnings("unchecked")
 public interface DatabaseObject<T> {
     /**
@@ -40,6 +45,37 @@ public interface DatabaseObject<T> {
         return (T) this;
     }
 
+    /**
+     * Applies update operators to this object's document.
+     * Unlike {@link #save()}, only the targeted fields are written.
+     * The object should be changed to match the update.
+     *
+     * @param updates The update operators to apply.
+     * @return This object.
+     */
+    default T update(UpdateOperator... updates) {
+        return this.update(List.of(updates));
+    }
+
+    /**
+     * Applies update operators to this object's document.
+     * Unlike {@link #save()}, only the targeted fields are written.
+     * The object should be changed to match the update.
+     *
+     * @param updates The update operators to apply.
+     * @return This object.
+     */
+    default T update(List<UpdateOperator> updates) {
+        if (updates.isEmpty()) return (T) this;
+
+        var datastore = Laudiolin.getDatastore();
+        datastore.find(this.getClass())
+                .filter(Filters.eq("_id", datastore.getMapper().getId(this)))
+                .update(new UpdateOptions(), updates.toArray(UpdateOperator[]::new));
+
+        return (T) this;
+    }
+
     /**
      * Deletes this object from the database.
      */
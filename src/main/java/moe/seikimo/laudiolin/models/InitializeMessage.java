@@ -12,4 +12,16 @@ public final class InitializeMessage {
 
     private String botId;
     private String guildId;
+
+    /**
+     * The protocol the client wants messages in.
+     * Either 'json' (default) or 'protobuf'.
+     */
+    private String protocol;
+
+    /**
+     * Whether the client extrapolates the position of syncs.
+     * Syncs sent to it leave out the track if it hasn't changed.
+     */
+    private boolean syncDeltas;
 }
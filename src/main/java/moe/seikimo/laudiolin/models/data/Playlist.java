@@ -1,11 +1,20 @@
 package moe.seikimo.laudiolin.models.data;
 
 import com.google.gson.JsonObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
 import dev.morphia.annotations.Entity;
 import dev.morphia.annotations.Id;
+import dev.morphia.annotations.PostPersist;
+import dev.morphia.annotations.PreLoad;
+import dev.morphia.query.updates.UpdateOperator;
 import lombok.Data;
 import lombok.experimental.Accessors;
 import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.Laudiolin;
+import moe.seikimo.laudiolin.TrackStore;
+import moe.seikimo.laudiolin.files.StorageManager;
 import moe.seikimo.laudiolin.interfaces.DatabaseObject;
 import moe.seikimo.laudiolin.objects.JObject;
 import moe.seikimo.laudiolin.utils.Assertions;
@@ -13,11 +22,11 @@ import moe.seikimo.laudiolin.utils.DatabaseUtils;
 import moe.seikimo.laudiolin.utils.EncodingUtils;
 import moe.seikimo.laudiolin.utils.RandomUtils;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +34,10 @@ import java.util.List;
 @Accessors(chain = true)
 @Entity(value = "playlists", useDiscriminator = false)
 public class Playlist implements DatabaseObject<Playlist> {
+    /* The fields of a playlist, besides its tracks. */
+    private static final List<String> SUMMARY_FIELDS = List.of(
+            "owner", "name", "description", "icon", "isPrivate");
+
     /**
      * Gets a playlist by its ID.
      *
@@ -36,6 +49,38 @@ public class Playlist implements DatabaseObject<Playlist> {
                 Playlist.class, "_id", id);
     }
 
+    /**
+     * Fetches a playlist without loading all of its tracks.
+     * Only the requested range of track IDs is read, and then resolved.
+     *
+     * @param id The ID of the playlist.
+     * @param offset The index of the first track to load.
+     * @param limit The maximum amount of tracks to load, or 0 for none.
+     * @return The playlist's document, with the total amount of tracks as 'count'.
+     */
+    @Nullable
+    public static Document getPlaylistPage(String id, int offset, int limit) {
+        var projection = new ArrayList<Bson>();
+        projection.add(Projections.include(SUMMARY_FIELDS));
+        projection.add(Projections.computed("count", new Document("$size",
+                new Document("$ifNull", List.of("$tracks", List.of())))));
+        if (limit > 0) {
+            projection.add(Projections.slice("tracks", offset, limit));
+        }
+
+        var document = Laudiolin.getDatastore()
+                .getCollection(Playlist.class)
+                .withDocumentClass(Document.class)
+                .find(Filters.eq("_id", id))
+                .projection(Projections.fields(projection))
+                .first();
+        if (document == null || limit <= 0) return document;
+
+        // Resolve the tracks in the range.
+        TrackStore.expand(document, "tracks");
+        return document;
+    }
+
     /**
      * Checks if a playlist is valid.
      *
@@ -106,10 +151,34 @@ public class Playlist implements DatabaseObject<Playlist> {
 
     private String iconId = null;
 
+    /* Whether the document still embeds tracks instead of their IDs. */
+    private transient boolean embedded = false;
+
     public Playlist() {
         // Empty constructor for Morphia.
     }
 
+    /**
+     * Resolves the stored track IDs to the tracks.
+     *
+     * @param document The document being loaded.
+     */
+    @PreLoad
+    public void onLoad(Document document) {
+        this.embedded = TrackStore.expand(document, "tracks");
+    }
+
+    /**
+     * Stores the tracks separately, and only their IDs in the playlist.
+     *
+     * @param document The document being written.
+     */
+    @PostPersist
+    public void onPersist(Document document) {
+        TrackStore.normalize(document, "tracks");
+        this.embedded = false;
+    }
+
     /**
      * Sets the playlist's image from a Base64-encoded image.
      *
@@ -119,23 +188,17 @@ public class Playlist implements DatabaseObject<Playlist> {
         // Decode the image.
         var imageData = EncodingUtils.base64Decode(image);
 
+        var storage = StorageManager.getBackend();
         if (this.iconId != null) {
-            // Check if the file exists on the system.
-            var file = new File(
-                    Config.get().getStoragePath(),
-                    this.iconId + ".png");
-
-            if (file.exists() && !file.delete()) {
+            // Delete the old icon from the system.
+            if (!storage.delete(this.iconId + ".png")) {
                 throw new IllegalStateException("Failed to delete the old playlist icon.");
             }
         }
 
         // Save the image to the system.
         var iconId = RandomUtils.randomString(16);
-        var file = new File(
-                Config.get().getStoragePath(),
-                iconId + ".png");
-        Files.write(file.toPath(), imageData);
+        storage.write(iconId + ".png", imageData);
 
         // Set the new icon ID.
         this.iconId = iconId;
@@ -144,14 +207,54 @@ public class Playlist implements DatabaseObject<Playlist> {
         this.save();
     }
 
+    /**
+     * Applies update operators to this playlist's document.
+     * Playlists which still embed tracks are written in full.
+     *
+     * @param updates The update operators to apply.
+     * @return This playlist.
+     */
+    @Override
+    public Playlist update(List<UpdateOperator> updates) {
+        if (this.embedded) return this.save();
+        return DatabaseObject.super.update(updates);
+    }
+
+    /**
+     * Removes a track from this playlist's document in a single update.
+     * The update only applies if the slot still holds the expected track,
+     * so a concurrent edit can't cause the wrong track to be removed.
+     *
+     * @param index The index of the track.
+     * @param trackId The ID of the track expected at the index.
+     * @return Whether the track was removed.
+     */
+    public boolean removeTrack(int index, String trackId) {
+        // Playlists which still embed tracks are written in full.
+        if (this.embedded) {
+            this.save();
+            return true;
+        }
+
+        var result = Laudiolin.getDatastore()
+                .getCollection(Playlist.class)
+                .withDocumentClass(Document.class)
+                .updateOne(Filters.and(
+                        Filters.eq("_id", this.getId()),
+                        Filters.eq("tracks." + index, trackId)
+                ), List.of(Updates.set("tracks", new Document("$concatArrays", List.of(
+                        new Document("$slice", List.of("$tracks", index)),
+                        new Document("$slice", List.of("$tracks", index + 1,
+                                new Document("$size", "$tracks"))))))));
+        return result.getMatchedCount() > 0;
+    }
+
     @Override
     public boolean delete() {
         // Delete the playlist icon.
         if (this.iconId != null) {
-            var file = new File(
-                    Config.get().getStoragePath(),
-                    this.iconId + ".png");
-            if (file.exists() && !file.delete()) {
+            var storage = StorageManager.getBackend();
+            if (!storage.delete(this.iconId + ".png")) {
                 throw new IllegalStateException("Failed to delete the playlist icon.");
             }
         }
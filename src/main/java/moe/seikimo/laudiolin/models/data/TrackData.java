@@ -40,29 +40,14 @@ public class TrackData {
         // Empty constructor for Morphia.
     }
 
+    /**
+     * Cleans up the track before it is loaded.
+     * Old icon and source URLs are repaired by {@link moe.seikimo.laudiolin.TrackStore#requestRepair()}.
+     *
+     * @param document The document being loaded.
+     */
     @PreLoad
     public void onLoad(Document document) {
-        var id = document.getString("id");
-
-        // Check if the icon URL should be morphed.
-        var icon = document.getString("icon");
-        if (icon.contains("localhost:")) {
-            // Determine the icon from the ID.
-            var track = TrackUtils.lookup(id);
-            icon = track.getIcon();
-        }
-
-        // Check if the source URL should be morphed.
-        var url = document.getString("url");
-        if (url.contains("/stream") || url.contains("?id=") || url.contains("&quality=")) {
-            // Determine the source from the ID.
-            var track = TrackUtils.lookup(id);
-            url = track.getUrl();
-        }
-
-        // Set the values.
-        document.put("icon", icon);
-        document.put("url", url);
         document.put("artist", TrackUtils.parseArtist(
                 document.getString("artist")));
     }
@@ -87,7 +72,7 @@ public class TrackData {
                 .setArtist(track.getString("artist"))
                 .setIcon(track.getString("icon"))
                 .setUrl(track.getString("url"))
-                .setDuration(track.getInteger("duration"))
+                .setDuration(track.getInteger("duration", 0))
                 .setLocal(false);
     }
 
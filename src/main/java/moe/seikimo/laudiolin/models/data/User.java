@@ -1,21 +1,27 @@
 package moe.seikimo.laudiolin.models.data;
 
 import com.google.gson.JsonObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import dev.morphia.annotations.Entity;
 import dev.morphia.annotations.Id;
-import dev.morphia.annotations.Reference;
+import dev.morphia.annotations.PostPersist;
+import dev.morphia.annotations.PreLoad;
+import dev.morphia.query.updates.UpdateOperator;
 import lombok.Data;
 import moe.seikimo.laudiolin.Config;
 import moe.seikimo.laudiolin.Laudiolin;
+import moe.seikimo.laudiolin.TrackStore;
+import moe.seikimo.laudiolin.UserCache;
 import moe.seikimo.laudiolin.interfaces.DatabaseObject;
 import moe.seikimo.laudiolin.models.BasicUserInfo;
 import moe.seikimo.laudiolin.objects.JObject;
-import moe.seikimo.laudiolin.utils.DatabaseUtils;
 import moe.seikimo.laudiolin.utils.EncodingUtils;
 import moe.seikimo.laudiolin.utils.HttpUtils;
 import org.bson.Document;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 
@@ -24,13 +30,13 @@ import java.util.Objects;
 public class User implements DatabaseObject<User> {
     /**
      * Fetches a user by their ID.
+     * Users are cached after they are loaded.
      *
      * @param id The ID of the user.
      * @return The user.
      */
     public static User getUserById(String id) {
-        return DatabaseUtils.fetch(
-                User.class, "_id", id);
+        return UserCache.get(id);
     }
 
     /**
@@ -54,7 +60,7 @@ public class User implements DatabaseObject<User> {
         }
 
         // Convert all playlists.
-        List<Playlist> playlists = new ArrayList<>();
+        List<String> playlists = new ArrayList<>();
         for (var playlistId : legacy.getList("playlists", String.class)) {
             var search = legacyPlaylists.find(new Document("id", playlistId));
 
@@ -64,7 +70,7 @@ public class User implements DatabaseObject<User> {
 
             // Convert the playlist.
             var newPlaylist = Playlist.migrate(user, playlist);
-            playlists.add(newPlaylist);
+            playlists.add(newPlaylist.getId());
         }
         user.setPlaylists(playlists);
 
@@ -94,15 +100,41 @@ public class User implements DatabaseObject<User> {
 
     private boolean isDeveloper = false;
 
-    @Reference(idOnly = true)
-    private List<Playlist> playlists = new ArrayList<>();
+    /* Stored as the IDs of the playlists; they are only loaded when needed. */
+    private List<String> playlists = new ArrayList<>();
     private List<TrackData> likedSongs = new ArrayList<>();
     private List<TrackData> recentlyPlayed = new ArrayList<>();
 
+    /* Whether the document still embeds tracks instead of their IDs. */
+    private transient boolean embedded = false;
+
     public User() {
         // Empty constructor for Morphia.
     }
 
+    /**
+     * Resolves the stored track IDs to the tracks.
+     *
+     * @param document The document being loaded.
+     */
+    @PreLoad
+    public void onLoad(Document document) {
+        this.embedded = TrackStore.expand(document,
+                "likedSongs", "recentlyPlayed");
+    }
+
+    /**
+     * Stores the tracks separately, and only their IDs in the user.
+     *
+     * @param document The document being written.
+     */
+    @PostPersist
+    public void onPersist(Document document) {
+        TrackStore.normalize(document,
+                "likedSongs", "recentlyPlayed");
+        this.embedded = false;
+    }
+
     /**
      * Compare this object with another.
      *
@@ -115,6 +147,67 @@ public class User implements DatabaseObject<User> {
                 Objects.equals(this.getUserId(), user.getUserId());
     }
 
+    /**
+     * Saves this user to the database.
+     * The cached copy of the user is replaced.
+     */
+    @Override
+    public User save() {
+        Laudiolin.getDatastore().save(this);
+        UserCache.put(this);
+        return this;
+    }
+
+    /**
+     * Applies update operators to this user's document.
+     * Users which still embed tracks are written in full.
+     *
+     * @param updates The update operators to apply.
+     * @return This user.
+     */
+    @Override
+    public User update(List<UpdateOperator> updates) {
+        if (this.embedded) return this.save();
+        return DatabaseObject.super.update(updates);
+    }
+
+    /**
+     * Deletes this user from the database.
+     */
+    @Override
+    public boolean delete() {
+        UserCache.invalidate(this.getUserId());
+        return DatabaseObject.super.delete();
+    }
+
+    /**
+     * Fetches the IDs of the user's playlists.
+     * Only the ID and privacy of each playlist are read.
+     *
+     * @param withPrivate Whether to include private playlists.
+     * @return The IDs of the playlists which exist, in the user's order.
+     */
+    public List<String> getPlaylistIds(boolean withPrivate) {
+        var playlists = new ArrayList<>(this.getPlaylists());
+        if (playlists.isEmpty()) return playlists;
+
+        var filter = Filters.in("_id", playlists);
+        if (!withPrivate) {
+            filter = Filters.and(filter, Filters.ne("isPrivate", true));
+        }
+
+        var visible = new HashSet<String>();
+        Laudiolin.getDatastore()
+                .getCollection(Playlist.class)
+                .withDocumentClass(Document.class)
+                .find(filter)
+                .projection(Projections.include("_id", "isPrivate"))
+                .forEach(playlist -> visible.add(playlist.getString("_id")));
+
+        playlists.removeIf(id -> !visible.contains(id));
+        return playlists;
+    }
+
     /**
      * @return The public information about the user.
      */
@@ -161,16 +254,8 @@ public class User implements DatabaseObject<User> {
             baseData.add("isDeveloper", this.isDeveloper());
         }
 
-        // Resolve all public playlists.
-        var playlists = withPrivate ? this.getPlaylists() :
-                this.getPlaylists().stream()
-                        .filter(playlist -> !playlist.isPrivate())
-                        .toList();
-        var playlistIds = new ArrayList<>(
-                playlists.stream()
-                        .map(Playlist::getId)
-                        .toList()
-        );
+        // Resolve all visible playlists.
+        var playlistIds = this.getPlaylistIds(withPrivate);
         // Inject public data.
         playlistIds.addAll(Config.get().getPublicData().getPlaylists());
 
@@ -0,0 +1,103 @@
+package moe.seikimo.laudiolin.objects;
+
+/**
+ * A single, resolved HTTP byte range.
+ * Both the start and end offsets are inclusive.
+ *
+ * @param start The first byte of the range.
+ * @param end The last byte of the range.
+ * @param total The total length of the resource.
+ */
+public record ByteRange(long start, long end, long total) {
+    /**
+     * Creates a range which covers an entire resource.
+     *
+     * @param total The total length of the resource.
+     * @return The range.
+     */
+    public static ByteRange full(long total) {
+        return new ByteRange(0, total - 1, total);
+    }
+
+    /**
+     * Creates a range which cannot be satisfied.
+     *
+     * @param total The total length of the resource.
+     * @return The range.
+     */
+    public static ByteRange unsatisfiable(long total) {
+        return new ByteRange(-1, -1, total);
+    }
+
+    /**
+     * Parses a 'Range' header against a resource of a known length.
+     * Supports 'bytes=N-M', 'bytes=N-' and suffix ('bytes=-N') ranges.
+     * Only the first range of a multi-range request is honored.
+     *
+     * @param header The value of the 'Range' header.
+     * @param total The total length of the resource.
+     * @return The range, or null if the header is absent or malformed.
+     */
+    public static ByteRange parse(String header, long total) {
+        if (header == null || !header.startsWith("bytes=")) return null;
+
+        // Use only the first range specified.
+        var spec = header.substring(6);
+        var comma = spec.indexOf(',');
+        if (comma != -1) spec = spec.substring(0, comma);
+        spec = spec.trim();
+
+        // Check if the range is valid.
+        var dash = spec.indexOf('-');
+        if (dash == -1) return null;
+
+        try {
+            var first = spec.substring(0, dash).trim();
+            var last = spec.substring(dash + 1).trim();
+
+            if (first.isEmpty()) {
+                // This is a suffix range. ('bytes=-N')
+                if (last.isEmpty()) return null;
+
+                var suffix = Long.parseLong(last);
+                if (suffix <= 0 || total == 0) return ByteRange.unsatisfiable(total);
+
+                return new ByteRange(Math.max(0, total - suffix), total - 1, total);
+            }
+
+            var start = Long.parseLong(first);
+            var end = last.isEmpty() ? total - 1 : Long.parseLong(last);
+            if (end < start) return null;
+
+            // Check if the range can be satisfied.
+            if (start >= total) return ByteRange.unsatisfiable(total);
+
+            return new ByteRange(start, Math.min(end, total - 1), total);
+        } catch (NumberFormatException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether this range can be served.
+     */
+    public boolean satisfiable() {
+        return this.start >= 0 && this.end >= this.start;
+    }
+
+    /**
+     * @return The amount of bytes covered by this range.
+     */
+    public long length() {
+        return this.satisfiable() ? this.end - this.start + 1 : 0;
+    }
+
+    /**
+     * @return The value of the 'Content-Range' header for this range.
+     */
+    public String contentRange() {
+        return this.satisfiable() ?
+                "bytes " + this.start + "-" + this.end + "/" + this.total :
+                "bytes */" + this.total;
+    }
+}
@@ -1,9 +1,13 @@
 package moe.seikimo.laudiolin.routers;
 
 import com.google.gson.JsonObject;
+import dev.morphia.query.updates.UpdateOperator;
+import dev.morphia.query.updates.UpdateOperators;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import moe.seikimo.laudiolin.Config;
 import moe.seikimo.laudiolin.Laudiolin;
+import moe.seikimo.laudiolin.TrackStore;
 import moe.seikimo.laudiolin.enums.Source;
 import moe.seikimo.laudiolin.models.data.Playlist;
 import moe.seikimo.laudiolin.models.data.TrackData;
@@ -12,10 +16,15 @@ import moe.seikimo.laudiolin.objects.JObject;
 import moe.seikimo.laudiolin.utils.AccountUtils;
 import moe.seikimo.laudiolin.utils.DatabaseUtils;
 import moe.seikimo.laudiolin.utils.EncodingUtils;
+import moe.seikimo.laudiolin.utils.HttpUtils;
 import moe.seikimo.laudiolin.utils.SpotifyUtils;
+import moe.seikimo.laudiolin.utils.TrackUtils;
+import org.bson.Document;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import static moe.seikimo.laudiolin.utils.HttpUtils.*;
 
@@ -94,19 +103,20 @@ public interface PlaylistRouter {
 
             // Parse the playlist into a Laudiolin playlist.
             var node = Laudiolin.getNode();
-            var playlist = switch (source) {
-                default -> null;
-                case YOUTUBE -> node.youtubePlaylist(url);
-                case SPOTIFY -> SpotifyUtils.playlist(url);
-            };
-
-            // Check if the playlist is null.
-            if (playlist == null) {
-                ctx.status(400).json(INVALID_ARGUMENTS("Playlist data is invalid."));
-                return;
-            }
+            var timeout = Config.get().getTimeouts().getImportPlaylist();
+            HttpUtils.future(ctx, timeout, () -> switch (source) {
+                default -> CompletableFuture.<Playlist>completedFuture(null);
+                case YOUTUBE -> node.youtubePlaylistAsync(url);
+                case SPOTIFY -> SpotifyUtils.playlistAsync(url);
+            }, playlist -> {
+                // Check if the playlist is null.
+                if (playlist == null) {
+                    ctx.status(400).json(INVALID_ARGUMENTS("Playlist data is invalid."));
+                    return;
+                }
 
-            PlaylistRouter.addPlaylist(ctx, user, playlist);
+                PlaylistRouter.addPlaylist(ctx, user, playlist);
+            });
         } catch (Exception exception) {
             ctx.status(500).json(INTERNAL_ERROR(exception.getMessage()));
         }
@@ -114,6 +124,7 @@ public interface PlaylistRouter {
 
     /**
      * Fetches the playlist data.
+     * Passing 'summary', 'offset' or 'limit' fetches part of the playlist.
      *
      * @param ctx The Javalin context.
      */
@@ -128,6 +139,14 @@ public interface PlaylistRouter {
                 return;
             }
 
+            // Check if only part of the playlist should be fetched.
+            if (ctx.queryParam("summary") != null ||
+                    ctx.queryParam("offset") != null ||
+                    ctx.queryParam("limit") != null) {
+                PlaylistRouter.fetchPlaylistPage(ctx, id);
+                return;
+            }
+
             // Fetch the playlist from the database.
             var playlist = Playlist.getPlaylistById(id);
             if (playlist == null) {
@@ -136,17 +155,7 @@ public interface PlaylistRouter {
             }
 
             // Check if the user can view the playlist.
-            if (playlist.isPrivate()) {
-                // Check for authorization.
-                var user = AccountUtils.getUser(ctx);
-                if (user == null) return;
-
-                // Check if the user is the owner.
-                if (!Objects.equals(user.getUserId(), playlist.getOwner())) {
-                    ctx.status(404).json(NO_RESULTS());
-                    return;
-                }
-            }
+            if (!PlaylistRouter.canView(ctx, playlist.getOwner(), playlist.isPrivate())) return;
 
             // Return the playlist.
             ctx.status(301).json(playlist);
@@ -156,6 +165,102 @@ public interface PlaylistRouter {
         }
     }
 
+    /**
+     * Fetches a page of a playlist's tracks, or only its summary.
+     * Tracks outside the page are never read from the database.
+     *
+     * @param ctx The Javalin context.
+     * @param id The ID of the playlist.
+     */
+    private static void fetchPlaylistPage(Context ctx, String id) {
+        // Parse the range of tracks.
+        var database = Config.get().getDatabase();
+        var summary = ctx.queryParam("summary") != null;
+        int offset, limit;
+        try {
+            var offsetRaw = ctx.queryParam("offset");
+            var limitRaw = ctx.queryParam("limit");
+            offset = offsetRaw == null ? 0 : Integer.parseInt(offsetRaw);
+            limit = summary ? 0 : limitRaw == null ?
+                    database.getPlaylistPageSize() : Integer.parseInt(limitRaw);
+        } catch (NumberFormatException ignored) {
+            ctx.status(400).json(INVALID_ARGUMENTS("Offset or limit is invalid."));
+            return;
+        }
+        if (offset < 0 || limit < 0) {
+            ctx.status(400).json(INVALID_ARGUMENTS("Offset or limit is invalid."));
+            return;
+        }
+        limit = Math.min(limit, database.getMaxPlaylistPageSize());
+
+        // Fetch the playlist from the database.
+        var playlist = Playlist.getPlaylistPage(id, offset, limit);
+        if (playlist == null) {
+            ctx.status(404).json(NO_RESULTS());
+            return;
+        }
+
+        // Check if the user can view the playlist.
+        var owner = playlist.getString("owner");
+        var isPrivate = playlist.getBoolean("isPrivate", false);
+        if (!PlaylistRouter.canView(ctx, owner, isPrivate)) return;
+
+        var count = playlist.getInteger("count", 0);
+        var response = JObject.c()
+                .add("id", id)
+                .add("owner", owner)
+                .add("name", playlist.getString("name"))
+                .add("description", playlist.getString("description"))
+                .add("icon", playlist.getString("icon"))
+                .add("isPrivate", isPrivate)
+                .add("count", count);
+
+        if (!summary) {
+            // Convert the tracks in the page.
+            var tracks = new ArrayList<TrackData>();
+            for (var track : playlist.getList("tracks", Object.class, List.of())) {
+                if (!(track instanceof Document document)) continue;
+
+                var trackData = TrackData.toTrack(document);
+                tracks.add(trackData.setArtist(
+                        TrackUtils.parseArtist(trackData.getArtist())));
+            }
+
+            // Point to the next page, if there is one.
+            var next = offset + limit;
+            response.add("tracks", tracks)
+                    .add("offset", offset)
+                    .add("next", limit > 0 && next < count ? next : null);
+        }
+
+        ctx.status(200).json(response.gson());
+    }
+
+    /**
+     * Checks if the requesting user can view a playlist.
+     * A response is sent if they can't.
+     *
+     * @param ctx The Javalin context.
+     * @param owner The ID of the playlist's owner.
+     * @param isPrivate Whether the playlist is private.
+     * @return Whether the playlist can be viewed.
+     */
+    private static boolean canView(Context ctx, String owner, boolean isPrivate) {
+        if (!isPrivate) return true;
+
+        // Check for authorization.
+        var user = AccountUtils.getUser(ctx);
+        if (user == null) return false;
+
+        // Check if the user is the owner.
+        if (!Objects.equals(user.getUserId(), owner)) {
+            ctx.status(404).json(NO_RESULTS());
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Updates a playlist.
      *
@@ -192,6 +297,7 @@ public interface PlaylistRouter {
 
             // Get the body data.
             var body = ctx.bodyAsClass(JsonObject.class);
+            var updates = new ArrayList<UpdateOperator>();
             switch (type) {
                 default -> {
                     ctx.status(400).json(INVALID_ARGUMENTS("Invalid action provided."));
@@ -207,6 +313,7 @@ public interface PlaylistRouter {
 
                     // Update the playlist.
                     playlist.setName(nameRaw.getAsString());
+                    updates.add(UpdateOperators.set("name", playlist.getName()));
                 }
                 case "describe" -> {
                     // Validate the body.
@@ -218,6 +325,7 @@ public interface PlaylistRouter {
 
                     // Update the playlist.
                     playlist.setDescription(descriptionRaw.getAsString());
+                    updates.add(UpdateOperators.set("description", playlist.getDescription()));
                 }
                 case "icon" -> {
                     // Validate the body.
@@ -229,6 +337,7 @@ public interface PlaylistRouter {
 
                     // Update the playlist.
                     playlist.setIcon(iconRaw.getAsString());
+                    updates.add(UpdateOperators.set("icon", playlist.getIcon()));
                 }
                 case "privacy" -> {
                     // Validate the body.
@@ -240,6 +349,7 @@ public interface PlaylistRouter {
 
                     // Update the playlist.
                     playlist.setPrivate(privacyRaw.getAsBoolean());
+                    updates.add(UpdateOperators.set("isPrivate", playlist.isPrivate()));
                 }
                 case "add" -> {
                     // Parse the body into a TrackData object.
@@ -255,6 +365,8 @@ public interface PlaylistRouter {
 
                     // Add the song to the playlist.
                     playlist.getTracks().add(trackData);
+                    TrackStore.put(trackData);
+                    updates.add(UpdateOperators.push("tracks", trackData.getId()));
                 }
                 case "remove" -> {
                     // Validate the body.
@@ -265,7 +377,17 @@ public interface PlaylistRouter {
                     }
 
                     // Remove the song from the playlist.
-                    playlist.getTracks().remove(indexRaw.getAsInt());
+                    var index = indexRaw.getAsInt();
+                    if (index < 0 || index >= playlist.getTracks().size()) {
+                        ctx.status(400).json(INVALID_ARGUMENTS("Index is invalid."));
+                        return;
+                    }
+
+                    var removed = playlist.getTracks().remove(index);
+                    if (!playlist.removeTrack(index, removed.getId())) {
+                        ctx.status(409).json(INVALID_ARGUMENTS("The playlist was changed."));
+                        return;
+                    }
                 }
                 case "bulk" -> {
                     // Validate all the tracks.
@@ -311,7 +433,12 @@ public interface PlaylistRouter {
             }
 
             // Save the playlist.
-            playlist.save();
+            if (type.equals("bulk")) {
+                playlist.save();
+            } else {
+                // Only write the changed fields.
+                if (!updates.isEmpty()) playlist.update(updates);
+            }
             // Return the playlist.
             ctx.status(200).json(playlist);
         } catch (IllegalArgumentException invalid) {
@@ -358,7 +485,11 @@ public interface PlaylistRouter {
             // Delete the playlist.
             playlist.delete();
             // Remove the playlist from the user.
-            user.getPlaylists().remove(playlist);
+            synchronized (user) {
+                var playlists = new ArrayList<>(user.getPlaylists());
+                playlists.remove(playlist.getId());
+                user.setPlaylists(playlists);
+            }
             user.save();
 
             // Return the playlist.
@@ -443,7 +574,11 @@ public interface PlaylistRouter {
         // Save the playlist.
         playlist.save();
         // Add the playlist to the user.
-        user.getPlaylists().add(playlist);
+        synchronized (user) {
+            var playlists = new ArrayList<>(user.getPlaylists());
+            playlists.add(playlist.getId());
+            user.setPlaylists(playlists);
+        }
         user.save();
 
         // Return the playlist.
@@ -9,11 +9,13 @@ import moe.seikimo.laudiolin.files.LocalFileManager;
 import moe.seikimo.laudiolin.files.LocalTrack;
 import moe.seikimo.laudiolin.models.data.TrackData;
 import moe.seikimo.laudiolin.objects.JObject;
+import moe.seikimo.laudiolin.utils.HttpUtils;
 import moe.seikimo.laudiolin.utils.SpotifyUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static moe.seikimo.laudiolin.utils.HttpUtils.NO_RESULTS;
 
@@ -51,23 +53,17 @@ public interface SearchRouter {
 
         // Perform a search request.
         var includeRemote = Config.get().getStorage().isSearchRemote();
+        var timeout = Config.get().getTimeouts().getSearch();
 
         var source = Source.identify(engine, "");
-        var node = Laudiolin.getNode();
-        List<TrackData> tracks = includeRemote ? switch (source) {
-            case UNKNOWN -> null;
-            case ALL, YOUTUBE -> {
-                var search = node.youtubeSearch(query, source != Source.ALL);
-                yield search.stream()
-                        .map(TrackData::toTrack)
-                        .toList();
+        HttpUtils.future(ctx, timeout, () -> includeRemote ?
+                SearchRouter.searchRemote(source, query) :
+                CompletableFuture.completedFuture(Collections.emptyList()), tracks -> {
+            if (tracks == null) {
+                ctx.status(404).json(NO_RESULTS());
+                return;
             }
-            case SPOTIFY -> SpotifyUtils.search(query);
-        } : Collections.emptyList();
 
-        if (tracks == null) {
-            ctx.status(404).json(NO_RESULTS());
-        } else {
             var results = new ArrayList<>(localResults);
             if (includeRemote) {
                 results.addAll(tracks);
@@ -82,7 +78,7 @@ public interface SearchRouter {
                         .header("Cache-Control", "public, max-age=86400")
                         .json(response);
             }
-        }
+        });
     }
 
     /**
@@ -91,42 +87,21 @@ public interface SearchRouter {
      * @param ctx The context.
      */
     static void fetchTrack(Context ctx) {
-        try {
-            // Pull arguments.
-            var id = ctx.pathParam("id");
-            var engine = ctx.queryParam("engine");
-
-            // Check if the arguments are valid.
-            if (id.isEmpty()) {
-                ctx.status(400).json(NO_RESULTS());
-                return;
-            }
-
-            // Identify the engine.
-            var source = Source.identify(engine, id);
-            var node = Laudiolin.getNode();
-            var results = switch (source) {
-                case UNKNOWN -> {
-                    // Check if the file is local.
-                    var track = LocalFileManager.getLocalTracks().get(id);
-                    if (track == null) yield null;
-
-                    yield track.data();
-                }
-                case ALL, YOUTUBE -> {
-                    var track = node.youtubeFetch(id);
-                    yield TrackData.toTrack(track);
-                }
-                case SPOTIFY -> {
-                    var track = id.length() == 22 ?
-                            SpotifyUtils.searchId(id) :
-                            SpotifyUtils.searchIsrc(id);
-                    if (track == null) yield null;
+        // Pull arguments.
+        var id = ctx.pathParam("id");
+        var engine = ctx.queryParam("engine");
 
-                    yield SpotifyUtils.toTrackData(track);
-                }
-            };
+        // Check if the arguments are valid.
+        if (id.isEmpty()) {
+            ctx.status(400).json(NO_RESULTS());
+            return;
+        }
 
+        // Identify the engine.
+        var source = Source.identify(engine, id);
+        var timeout = Config.get().getTimeouts().getFetch();
+        HttpUtils.future(ctx, timeout, () -> SearchRouter.fetchRemote(source, id)
+                .exceptionally(exception -> null), results -> {
             if (results == null) {
                 ctx.status(404).json(NO_RESULTS());
             } else {
@@ -137,9 +112,52 @@ public interface SearchRouter {
                     ctx.status(301).json(results);
                 }
             }
-        } catch (Exception ignored) {
-            ctx.status(404).json(NO_RESULTS());
-        }
+        });
+    }
+
+    /**
+     * Searches a source for tracks.
+     *
+     * @param source The source to search.
+     * @param query The search query.
+     * @return A future resolving to the tracks, or null if the source is unknown.
+     */
+    private static CompletableFuture<List<TrackData>> searchRemote(Source source, String query) {
+        var node = Laudiolin.getNode();
+        return switch (source) {
+            case UNKNOWN -> CompletableFuture.completedFuture(null);
+            case ALL, YOUTUBE -> node.youtubeSearchAsync(query, source != Source.ALL)
+                    .thenApply(search -> search.stream()
+                            .map(TrackData::toTrack)
+                            .toList());
+            case SPOTIFY -> SpotifyUtils.searchAsync(query);
+        };
+    }
+
+    /**
+     * Fetches a track's data from its source.
+     *
+     * @param source The source of the track.
+     * @param id The ID of the track.
+     * @return A future resolving to the track, or null if it wasn't found.
+     */
+    private static CompletableFuture<TrackData> fetchRemote(Source source, String id) {
+        var node = Laudiolin.getNode();
+        return switch (source) {
+            case UNKNOWN -> {
+                // Check if the file is local.
+                var track = LocalFileManager.getLocalTracks().get(id);
+                yield CompletableFuture.completedFuture(
+                        track == null ? null : track.data());
+            }
+            case ALL, YOUTUBE -> node.youtubeFetchAsync(id)
+                    .thenApply(TrackData::toTrack);
+            case SPOTIFY -> (id.length() == 22 ?
+                    SpotifyUtils.searchIdAsync(id) :
+                    SpotifyUtils.searchIsrcAsync(id))
+                    .thenApply(track -> track == null ? null :
+                            SpotifyUtils.toTrackData(track));
+        };
     }
 
     /**
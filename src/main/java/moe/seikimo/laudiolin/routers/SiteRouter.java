@@ -6,10 +6,10 @@ import io.javalin.http.Context;
 import io.javalin.http.servlet.JavalinServletContext;
 import moe.seikimo.laudiolin.Config;
 import moe.seikimo.laudiolin.Laudiolin;
+import moe.seikimo.laudiolin.files.StorageManager;
 import moe.seikimo.laudiolin.utils.HttpUtils;
 import moe.seikimo.laudiolin.utils.FileUtils;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.util.List;
 import java.util.Map;
@@ -155,8 +155,7 @@ public interface SiteRouter {
             return;
         }
 
-        var filePath = fileId + ".png";
-        var file = new File(Config.get().getStoragePath(), filePath);
+        var file = StorageManager.getBackend().locate(fileId + ".png");
         if (!file.exists()) {
             ctx.status(404);
             return;
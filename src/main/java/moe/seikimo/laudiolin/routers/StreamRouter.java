@@ -3,20 +3,31 @@ package moe.seikimo.laudiolin.routers;
 import io.javalin.Javalin;
 import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.http.HttpStatus;
 import moe.seikimo.laudiolin.Config;
-import moe.seikimo.laudiolin.Laudiolin;
 import moe.seikimo.laudiolin.enums.Source;
+import moe.seikimo.laudiolin.files.CachedStream;
+import moe.seikimo.laudiolin.files.DownloadManager;
 import moe.seikimo.laudiolin.files.LocalFileManager;
+import moe.seikimo.laudiolin.files.ReadAhead;
+import moe.seikimo.laudiolin.files.SegmentCache;
+import moe.seikimo.laudiolin.files.StorageManager;
+import moe.seikimo.laudiolin.files.StreamInfoCache;
+import moe.seikimo.laudiolin.objects.ByteRange;
 import moe.seikimo.laudiolin.utils.HttpUtils;
 import moe.seikimo.laudiolin.utils.SpotifyUtils;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 import static moe.seikimo.laudiolin.utils.HttpUtils.*;
 
 public interface StreamRouter {
+    /* The amount of bytes sent when the client doesn't request an end. */
+    long STREAM_WINDOW = 300000;
+
     /**
      * Configures the Javalin router.
      *
@@ -25,58 +36,51 @@ public interface StreamRouter {
     static void configure(Javalin javalin) {
         javalin.get("/download", StreamRouter::download);
         javalin.get("/stream", StreamRouter::stream);
+        javalin.head("/stream", StreamRouter::stream);
         javalin.get("/cache", StreamRouter::cache);
     }
 
     /**
-     * Fetches the video path.
+     * Fetches the video file.
+     * Invalid requests are responded to immediately.
      *
      * @param ctx The context.
-     * @return The path.
+     * @return A future resolving to the file's lease (null for unknown sources),
+     *         or null if the request was responded to.
      */
-    private static String fetchPathFor(Context ctx) {
-        try {
-            // Pull arguments.
-            var id = ctx.queryParam("id");
-            var engine = ctx.queryParam("engine");
-
-            // Validate arguments.
-            if (id == null || id.isEmpty()) {
-                ctx.status(400).json(INVALID_ARGUMENTS());
-                return null;
-            }
-
-            // Check if the ID is a local file.
-            var localFile = LocalFileManager.getLocalTracks().get(id);
-            if (localFile != null) {
-                return localFile.trackFile().getAbsolutePath();
-            }
+    private static CompletableFuture<StorageManager.Lease> fetchPathFor(Context ctx) {
+        // Pull arguments.
+        var id = ctx.queryParam("id");
+        var engine = ctx.queryParam("engine");
 
-            if (!Config.get().getStorage().isHostRemote()) {
-                ctx.status(404).json(NO_RESULTS());
-                return null;
-            }
+        // Validate arguments.
+        if (id == null || id.isEmpty()) {
+            ctx.status(400).json(INVALID_ARGUMENTS());
+            return null;
+        }
 
-            // Identify source.
-            var source = Source.identify(engine, id);
-            // Download the video.
-            var node = Laudiolin.getNode();
-            return switch (source) {
-                case UNKNOWN -> "";
-                case ALL, YOUTUBE -> node.youtubeDownload(id);
-                case SPOTIFY -> {
-                    // Get the YouTube ID.
-                    id = SpotifyUtils.toYouTubeId(id);
-                    // Download the file.
-                    yield node.youtubeDownload(id);
-                }
-            };
-        } catch (Exception exception) {
-            ctx.status(500);
-            Laudiolin.getLogger().warn("Failed to download video.", exception);
+        // Check if the ID is a local file.
+        var localFile = LocalFileManager.getLocalTracks().get(id);
+        if (localFile != null) {
+            return CompletableFuture.completedFuture(
+                    StorageManager.Lease.of(localFile.trackFile()));
+        }
 
+        if (!Config.get().getStorage().isHostRemote()) {
+            ctx.status(404).json(NO_RESULTS());
             return null;
         }
+
+        // Identify source.
+        var source = Source.identify(engine, id);
+        // Download the video.
+        return switch (source) {
+            case UNKNOWN -> CompletableFuture.completedFuture(null);
+            case ALL, YOUTUBE -> DownloadManager.download(id);
+            // Get the YouTube ID, then download the file.
+            case SPOTIFY -> SpotifyUtils.toYouTubeIdAsync(id)
+                    .thenCompose(DownloadManager::download);
+        };
     }
 
     /**
@@ -85,48 +89,24 @@ public interface StreamRouter {
      * @param ctx The context.
      */
     static void download(Context ctx) {
-        try {
-            // Fetch the path.
-            var path = StreamRouter.fetchPathFor(ctx);
-            if (path == null) return;
+        // Fetch the path.
+        var download = StreamRouter.fetchPathFor(ctx);
+        if (download == null) return;
 
-            // Validate the path.
-            if (path.isEmpty()) {
+        var timeout = Config.get().getTimeouts().getDownload();
+        HttpUtils.future(ctx, timeout, () -> download, lease -> {
+            // Validate the file.
+            if (lease == null) {
                 ctx.status(400).json(INVALID_ARGUMENTS());
                 return;
             }
 
-            // Serve the file.
-            var file = Files.readAllBytes(Path.of(path));
-            var data = file;
-
-            // Determine the range.
-            var range = HttpUtils.range(ctx);
-            if (range != null) {
-                // Get the range.
-                var start = range.first();
-                var end = range.second();
-                if (end == -1) {
-                    end = file.length - 1;
-                }
-
-                // Get the data.
-                var length = end - start + 1;
-                data = new byte[length];
-                System.arraycopy(file, start, data, 0, length);
-                ctx.header("Content-Range", "bytes " + start + "-" + end + "/" + file.length);
+            // Serve the file; it isn't evicted until the lease is closed.
+            try (lease) {
+                ctx.header("Cache-Control", "public, max-age=86400");
+                HttpUtils.serveFile(ctx, lease.getFile(), ContentType.AUDIO_MPEG);
             }
-
-            ctx
-                    .status(200)
-                    .contentType(ContentType.AUDIO_MPEG)
-                    .header("Content-Length", String.valueOf(data.length))
-                    .header("Cache-Control", "public, max-age=86400")
-                    .result(data);
-        } catch (Exception exception) {
-            ctx.status(500);
-            Laudiolin.getLogger().warn("Failed to download video.", exception);
-        }
+        }, StreamRouter::release);
     }
 
     /**
@@ -148,88 +128,221 @@ public interface StreamRouter {
             }
             if (quality == null) quality = "High";
 
-            // Identify source.
-            var source = Source.identify(engine, id);
-            // Parse the range.
-            var range = ctx.header("Range");
-            int start = 0, end = 0;
-            if (range != null && range.startsWith("bytes=")) {
-                var parts = range.substring(6).split("-");
-                start = Integer.parseInt(parts[0]);
-                end = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
-            }
-            if (end == 0) {
-                end = (int) (start + 3e5);
-            }
-
-            // Check if the range is valid.
-            if (start < 0 || end < 0 || start > end) {
-                ctx.status(400).json(INTERNAL_ERROR("Invalid range of bytes."));
+            // Check if the ID is a local file.
+            var localFile = LocalFileManager.getLocalTracks().get(id);
+            if (localFile != null) {
+                HttpUtils.serveFile(ctx, localFile.trackFile(), ContentType.AUDIO_MPEG);
                 return;
             }
 
-            // Check if the ID is a local file.
-            var hostRemote = Config.get().getStorage().isHostRemote();
-            var localFile = LocalFileManager.getLocalTracks().get(id);
-            if (!hostRemote && localFile == null) {
+            if (!Config.get().getStorage().isHostRemote()) {
                 ctx.status(404).json(NO_RESULTS());
                 return;
             }
 
-            // Stream the video.
-            var node = Laudiolin.getNode();
-            var data = hostRemote ? switch (source) {
-                case UNKNOWN -> null;
-                case ALL, YOUTUBE -> node.youtubeStream(id, quality, start, end);
-                case SPOTIFY -> {
-                    // Get the YouTube ID.
-                    id = SpotifyUtils.toYouTubeId(id);
-                    // Stream the file.
-                    yield node.youtubeStream(id, quality, start, end);
+            // Identify source.
+            var source = Source.identify(engine, id);
+            // The range is parsed once the stream is known.
+            // Malformed ranges are ignored, as if none was requested.
+            var header = ctx.header("Range");
+            var range = ByteRange.parse(header, Long.MAX_VALUE) == null ? null : header;
+
+            // Resolve the YouTube ID.
+            var videoId = switch (source) {
+                case UNKNOWN -> CompletableFuture.<String>completedFuture(null);
+                case ALL, YOUTUBE -> CompletableFuture.completedFuture(id);
+                case SPOTIFY -> SpotifyUtils.toYouTubeIdAsync(id);
+            };
+
+            var timeout = Config.get().getTimeouts().getStream();
+            var streamQuality = quality;
+            HttpUtils.future(ctx, timeout, () -> videoId, resolved -> {
+                if (resolved == null) {
+                    ctx.status(400).json(INVALID_ARGUMENTS());
+                    return;
                 }
-            } : null;
 
-            // Validate the data.
-            if (data == null && localFile == null) {
-                ctx.status(400).json(INVALID_ARGUMENTS());
-                return;
-            }
+                // Only describe the stream.
+                if (ctx.method() == HandlerType.HEAD) {
+                    StreamRouter.describe(ctx, resolved, streamQuality);
+                    return;
+                }
+
+                // Parse the range.
+                var bytes = StreamRouter.range(ctx, resolved, streamQuality, range);
+                if (bytes == null) return;
+
+                StreamRouter.send(ctx, resolved, streamQuality,
+                        range != null, bytes.start(), bytes.end());
+            });
+        } catch (Exception exception) {
+            ctx.status(500).json(INTERNAL_ERROR("Failed to stream audio."));
+        }
+    }
+
+    /**
+     * Resolves the range requested for a remote stream.
+     * Unsatisfiable ranges are responded to immediately.
+     * Malformed ranges are treated as no range.
+     *
+     * @param ctx The context.
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @param header The value of the 'Range' header, or null.
+     * @return The range to send, or null if the request was responded to.
+     */
+    private static ByteRange range(Context ctx, String videoId, String quality, String header) {
+        if (header == null) {
+            return new ByteRange(0, STREAM_WINDOW, Long.MAX_VALUE);
+        }
 
-            // Pull the data.
-            var bytes = localFile == null ?
-                    data.getData().toByteArray() :
-                    Files.readAllBytes(localFile.trackFile().toPath());
-            var totalLength = localFile == null ?
-                    data.getContentLength() : bytes.length;
-            if (end > totalLength) end = totalLength - 1;
-
-            // Prepare the headers.
-            if (range == null) {
-                ctx
-                        .header("Accept-Ranges", "bytes")
-                        .header("Content-Type", "audio/mpeg")
-                        .header("Transfer-Encoding", "chunked")
-                        .header("Connection", "keep-alive")
-                        .status(HttpStatus.OK);
-            } else {
-                ctx
-                        .header("Accept-Ranges", "bytes")
-                        .header("Content-Type", "audio/mpeg")
-                        .header("Content-Length", String.valueOf(bytes.length))
-                        .header("Content-Range", "bytes " + start + "-" + end + "/" + totalLength)
-                        .header("Connection", "keep-alive")
-                        .status(HttpStatus.PARTIAL_CONTENT);
+        var spec = header.startsWith("bytes=") ?
+                header.substring(6).split(",")[0].trim() : "";
+        var info = StreamInfoCache.get(videoId, quality);
+        if (info == null && spec.startsWith("-")) {
+            // Suffix ranges need the length of the stream.
+            SegmentCache.stream(videoId, quality, 0, 0, null);
+            info = StreamInfoCache.get(videoId, quality);
+            if (info == null) {
+                ctx.status(500).json(INTERNAL_ERROR("Failed to stream audio."));
+                return null;
             }
+        }
+
+        // An unknown length is checked once the stream begins.
+        var total = info == null ? Long.MAX_VALUE : info.contentLength();
+        var range = ByteRange.parse(header, total);
+        if (range == null) {
+            return new ByteRange(0, STREAM_WINDOW, Long.MAX_VALUE);
+        }
+        if (!range.satisfiable()) {
+            ctx
+                    .status(HttpStatus.RANGE_NOT_SATISFIABLE)
+                    .header("Accept-Ranges", "bytes")
+                    .header("Content-Range", info == null ?
+                            "bytes */*" : "bytes */" + total);
+            return null;
+        }
+
+        // Open-ended ranges are sent a window at a time.
+        return spec.endsWith("-") ? new ByteRange(range.start(),
+                Math.min(range.end(), range.start() + STREAM_WINDOW), total) : range;
+    }
+
+    /**
+     * Sends a range of a remote stream.
+     * Chunks are written to the client as they arrive from Node.
+     *
+     * @param ctx The context.
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     * @param ranged Whether the client requested a range.
+     * @param start The first byte of the range.
+     * @param end The last byte of the range.
+     */
+    private static void send(
+            Context ctx, String videoId, String quality,
+            boolean ranged, long start, long end
+    ) {
+        try {
+            // Cache the following windows during sequential playback.
+            var client = HttpUtils.ip(ctx);
+            ReadAhead.onRead(client, videoId, quality, start, end);
+
+            // Stream the video.
+            var sink = new CachedStream.Sink() {
+                private OutputStream output;
+
+                @Override
+                public void begin(long contentLength, String mimeType) throws IOException {
+                    if (start >= contentLength) {
+                        ctx
+                                .status(HttpStatus.RANGE_NOT_SATISFIABLE)
+                                .header("Content-Range", "bytes */" + contentLength);
+                        return;
+                    }
+
+                    // Prepare the headers.
+                    var last = Math.min(end, contentLength - 1);
+                    if (!ranged) {
+                        ctx
+                                .header("Accept-Ranges", "bytes")
+                                .header("Content-Type", StreamRouter.contentType(mimeType))
+                                .header("Transfer-Encoding", "chunked")
+                                .header("Connection", "keep-alive")
+                                .status(HttpStatus.OK);
+                    } else {
+                        ctx
+                                .header("Accept-Ranges", "bytes")
+                                .header("Content-Type", StreamRouter.contentType(mimeType))
+                                .header("Content-Length", String.valueOf(last - start + 1))
+                                .header("Content-Range", "bytes " + start + "-" + last + "/" + contentLength)
+                                .header("Connection", "keep-alive")
+                                .status(HttpStatus.PARTIAL_CONTENT);
+                    }
+
+                    this.output = ctx.outputStream();
+                }
+
+                @Override
+                public void write(byte[] data, int offset, int length) throws IOException {
+                    // Send each chunk as soon as it arrives.
+                    this.output.write(data, offset, length);
+                    this.output.flush();
+                }
+            };
 
-            // Send the bytes.
-            try (var stream = ctx.outputStream()) {
-                stream.write(bytes);
+            if (!SegmentCache.stream(videoId, quality, start, end, sink)) {
+                // The client disconnected or the stream failed.
+                ReadAhead.stop(client, videoId, quality);
+
+                if (!ctx.res().isCommitted()) {
+                    ctx.status(500).json(INTERNAL_ERROR("Failed to stream audio."));
+                }
             }
         } catch (Exception exception) {
-            ctx.status(500).json(INTERNAL_ERROR("Failed to stream audio."));
+            if (!ctx.res().isCommitted()) {
+                ctx.status(500).json(INTERNAL_ERROR("Failed to stream audio."));
+            }
         }
     }
 
+    /**
+     * Responds with the length and format of a remote stream.
+     *
+     * @param ctx The context.
+     * @param videoId The YouTube video ID.
+     * @param quality The quality of the stream.
+     */
+    private static void describe(Context ctx, String videoId, String quality) {
+        var info = StreamInfoCache.get(videoId, quality);
+        if (info == null) {
+            // Fetching the first block reveals the metadata.
+            SegmentCache.stream(videoId, quality, 0, 0, null);
+            info = StreamInfoCache.get(videoId, quality);
+        }
+
+        if (info == null) {
+            ctx.status(500);
+            return;
+        }
+
+        ctx
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Type", StreamRouter.contentType(info.mimeType()))
+                .header("Content-Length", String.valueOf(info.contentLength()))
+                .status(HttpStatus.OK);
+    }
+
+    /**
+     * @param mimeType The format reported by Node.
+     * @return The content type to serve the stream with.
+     */
+    private static String contentType(String mimeType) {
+        return mimeType == null || mimeType.isEmpty() ?
+                ContentType.AUDIO_MPEG.getMimeType() : mimeType;
+    }
+
     /**
      * Downloads the specified video.
      * This only caches the song, it doesn't return it.
@@ -237,14 +350,24 @@ public interface StreamRouter {
      * @param ctx The context.
      */
     static void cache(Context ctx) {
-        try {
-            // Use the path method to download the video.
-            StreamRouter.fetchPathFor(ctx);
-            // Return the state.
+        // Use the path method to download the video.
+        var download = StreamRouter.fetchPathFor(ctx);
+        if (download == null) return;
+
+        // Return the state.
+        var timeout = Config.get().getTimeouts().getDownload();
+        HttpUtils.future(ctx, timeout, () -> download, lease -> {
+            StreamRouter.release(lease);
             ctx.status(200).json(SUCCESS());
-        } catch (Exception exception) {
-            ctx.status(500);
-            Laudiolin.getLogger().warn("Failed to download video.", exception);
-        }
+        }, StreamRouter::release);
+    }
+
+    /**
+     * Allows a downloaded file to be evicted again.
+     *
+     * @param lease The lease of the file, or null.
+     */
+    private static void release(StorageManager.Lease lease) {
+        if (lease != null) lease.close();
     }
 }
@@ -1,15 +1,21 @@
 package moe.seikimo.laudiolin.routers;
 
+import dev.morphia.query.updates.UpdateOperators;
 import io.javalin.Javalin;
 import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.TokenCache;
+import moe.seikimo.laudiolin.TrackStore;
 import moe.seikimo.laudiolin.models.data.TrackData;
 import moe.seikimo.laudiolin.models.data.User;
 import moe.seikimo.laudiolin.utils.AccountUtils;
 import moe.seikimo.laudiolin.utils.EncodingUtils;
 import moe.seikimo.laudiolin.utils.FileUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static moe.seikimo.laudiolin.utils.HttpUtils.*;
@@ -69,6 +75,7 @@ public interface UserRouter {
 
             // Fetch the account from the database.
             var userId = accountInfo.get("id").getAsString();
+            TokenCache.put(token, userId);
             var user = User.getUserById(userId);
             if (user == null) {
                 // Create a new user.
@@ -149,27 +156,37 @@ public interface UserRouter {
                 return;
             }
 
-            // Perform the operation on the user's favorites.
-            var favorites = user.getLikedSongs();
+            // Perform the operation on a copy of the user's favorites.
+            // The cached user is shared, so its list is replaced rather than changed.
             var track = ctx.bodyAsClass(TrackData.class);
-            if (operation.equals("add")) {
-                // Check if the track is already in the favorites.
-                if (favorites.contains(track)) {
-                    ctx.status(400).json(INVALID_ARGUMENTS());
-                    return;
+            List<TrackData> favorites;
+            synchronized (user) {
+                favorites = new ArrayList<>(user.getLikedSongs());
+                if (operation.equals("add")) {
+                    // Check if the track is already in the favorites.
+                    if (favorites.contains(track)) {
+                        ctx.status(400).json(INVALID_ARGUMENTS());
+                        return;
+                    }
+
+                    favorites.add(track);
+                } else {
+                    favorites.removeIf(liked -> Objects.equals(liked.getId(), track.getId()));
                 }
 
+                user.setLikedSongs(favorites);
+            }
+
+            if (operation.equals("add")) {
                 // Add the track to the favorites.
-                favorites.add(track);
+                TrackStore.put(track);
+                user.update(UpdateOperators.push("likedSongs", track.getId()));
             } else {
                 // Remove the track from the favorites.
-                favorites.remove(track);
+                user.update(UpdateOperators.pullAll("likedSongs",
+                        List.of(track.getId())));
             }
 
-            // Update the user's favorites.
-            user.setLikedSongs(favorites);
-            user.save();
-
             // Send the list of favorites.
             ctx.status(200).json(favorites);
         } catch (Exception ignored) {
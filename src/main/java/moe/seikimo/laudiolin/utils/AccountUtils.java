@@ -4,6 +4,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import io.javalin.http.Context;
 import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.TokenCache;
 import moe.seikimo.laudiolin.gateway.Gateway;
 import moe.seikimo.laudiolin.models.data.User;
 import moe.seikimo.laudiolin.objects.JObject;
@@ -25,6 +26,24 @@ public interface AccountUtils {
      */
     @Nullable
     static JsonObject accountInfo(String token) {
+        try {
+            return AccountUtils.fetchAccount(token);
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Fetches an account's information by token.
+     * Unlike {@link #accountInfo(String)}, this distinguishes invalid tokens
+     * from failures of the account API.
+     *
+     * @param token The token.
+     * @return The account information, or null if the token is invalid.
+     * @throws IOException If the account API couldn't be reached.
+     */
+    @Nullable
+    static JsonObject fetchAccount(String token) throws IOException {
         var request = new Request.Builder()
                 .url(Config.get().seikimo.getBaseUrl() + "/account")
                 .header("Authorization", token)
@@ -34,6 +53,11 @@ public interface AccountUtils {
                 .newCall(request).execute()) {
             // Check if the response was successful.
             if (!response.isSuccessful()) {
+                // Only client errors indicate an invalid token.
+                if (response.code() >= 500) {
+                    throw new IOException("Account API responded with " + response.code() + ".");
+                }
+
                 return null;
             }
 
@@ -43,8 +67,6 @@ public interface AccountUtils {
 
             return EncodingUtils.jsonDecode(
                     body.string(), JsonObject.class);
-        } catch (IOException ignored) {
-            return null;
         }
     }
 
@@ -189,18 +211,18 @@ public interface AccountUtils {
 
     /**
      * Attempts to fetch a user by their token.
+     * The token's user is cached for a short time.
      *
      * @param token The token.
      * @return The user, or null if not found.
      */
     @Nullable
     static User getUser(String token) {
-        // Attempt to get the account information.
-        var accountInfo = AccountUtils.accountInfo(token);
-        if (accountInfo == null) return null;
+        // Resolve the user's ID from the token.
+        var userId = TokenCache.resolve(token);
+        if (userId == null) return null;
 
         // Perform a database lookup for the user's ID.
-        var userId = accountInfo.get("id").getAsString();
         return User.getUserById(userId);
     }
 }
@@ -24,6 +24,12 @@ public interface EncodingUtils {
             .disableHtmlEscaping()
             .serializeNulls()
             .create();
+    /* Used where the output is only read by clients. */
+    Gson COMPACT_GSON = new GsonBuilder()
+            .registerTypeAdapter(JObject.class, new JObject.Adapter())
+            .disableHtmlEscaping()
+            .serializeNulls()
+            .create();
 
     /**
      * Converts an object to JSON.
@@ -99,6 +105,16 @@ public interface EncodingUtils {
         return GSON.toJson(object);
     }
 
+    /**
+     * Encodes an object to JSON without any whitespace.
+     *
+     * @param object The object to encode.
+     * @return The encoded JSON.
+     */
+    static String jsonEncodeCompact(Object object) {
+        return COMPACT_GSON.toJson(object);
+    }
+
     /**
      * Encodes an object to JSON.
      *
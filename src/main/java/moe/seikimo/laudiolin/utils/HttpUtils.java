@@ -1,12 +1,29 @@
 package moe.seikimo.laudiolin.utils;
 
 import com.google.gson.JsonObject;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import moe.seikimo.laudiolin.Laudiolin;
+import moe.seikimo.laudiolin.objects.ByteRange;
 import moe.seikimo.laudiolin.objects.JObject;
-import moe.seikimo.laudiolin.objects.Pair;
 import okhttp3.*;
+import org.eclipse.jetty.io.EofException;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @SuppressWarnings("KotlinInternalInJava")
 public interface HttpUtils {
@@ -131,30 +148,165 @@ public interface HttpUtils {
      * Parses the range header.
      *
      * @param ctx The context.
-     * @return The range.
+     * @param total The total length of the resource.
+     * @return The range, or null if no (valid) range was requested.
      */
-    static Pair<Integer, Integer> range(Context ctx) {
-        var range = ctx.header("Range");
-        if (range == null) return null;
-
-        // Check if the range is valid.
-        if (!range.startsWith("bytes=")) return null;
+    static ByteRange range(Context ctx, long total) {
+        return ByteRange.parse(ctx.header("Range"), total);
+    }
 
-        // Remove the bytes= part.
-        range = range.substring(6);
+    /**
+     * Serves a file to the client, honoring the 'Range' header.
+     * The requested bytes are transferred directly from the file channel.
+     *
+     * @param ctx The context.
+     * @param file The file to serve.
+     * @param contentType The content type of the file.
+     */
+    static void serveFile(Context ctx, File file, ContentType contentType) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var total = channel.size();
+
+            // Determine the range.
+            var range = HttpUtils.range(ctx, total);
+            if (range != null && !range.satisfiable()) {
+                ctx
+                        .status(HttpStatus.RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", range.contentRange())
+                        .header("Accept-Ranges", "bytes");
+                return;
+            }
+
+            if (range == null) {
+                ctx.status(HttpStatus.OK);
+                range = ByteRange.full(total);
+            } else {
+                ctx
+                        .status(HttpStatus.PARTIAL_CONTENT)
+                        .header("Content-Range", range.contentRange());
+            }
+
+            ctx
+                    .contentType(contentType)
+                    .header("Accept-Ranges", "bytes")
+                    .header("Content-Length", String.valueOf(range.length()));
+
+            // Send the bytes.
+            try (var stream = ctx.outputStream()) {
+                HttpUtils.transfer(channel, range.start(), range.length(), stream);
+            } catch (EofException ignored) {
+                // The client closed the connection.
+            }
+        }
+    }
 
-        // Check if the range is valid.
-        if (!range.contains("-")) return null;
+    /**
+     * Transfers a region of a file channel to an output stream.
+     *
+     * @param channel The channel to read from.
+     * @param position The position to start reading from.
+     * @param count The amount of bytes to transfer.
+     * @param stream The stream to write to.
+     */
+    static void transfer(FileChannel channel, long position, long count, OutputStream stream) throws IOException {
+        var output = Channels.newChannel(stream);
+        while (count > 0) {
+            var written = channel.transferTo(position, count, output);
+            if (written <= 0) break;
+
+            position += written;
+            count -= written;
+        }
+    }
 
-        // Split the range.
-        var split = range.split("-");
+    /**
+     * Responds to a request once upstream work completes.
+     * The request thread is released while the work runs.
+     * The work is cancelled if it exceeds the timeout or the client disconnects.
+     *
+     * @param ctx The context.
+     * @param timeout The time (in seconds) the work may take.
+     * @param work Starts the upstream work. Its future is cancelled if the request is abandoned.
+     * @param respond Writes the response from the result. Runs on the response pool, which
+     *                has no limit, as responses may block while streaming to the client.
+     */
+    static <T> void future(
+            Context ctx, int timeout,
+            Supplier<CompletableFuture<T>> work,
+            ThrowingConsumer<T> respond
+    ) {
+        HttpUtils.future(ctx, timeout, work, respond, result -> {});
+    }
 
-        // Parse the range.
-        var start = Integer.parseInt(split[0]);
-        var end = split.length == 1 ? -1 :
-                Integer.parseInt(split[1]);
+    /**
+     * Responds to a request once upstream work completes.
+     * The request thread is released while the work runs.
+     * The work is cancelled if it exceeds the timeout or the client disconnects.
+     *
+     * @param ctx The context.
+     * @param timeout The time (in seconds) the work may take.
+     * @param work Starts the upstream work. Its future is cancelled if the request is abandoned.
+     * @param respond Writes the response from the result. Runs on the response pool, which
+     *                has no limit, as responses may block while streaming to the client.
+     * @param discard Releases a result which arrived after the request was abandoned.
+     *                Exactly one of respond and discard receives a result.
+     */
+    static <T> void future(
+            Context ctx, int timeout,
+            Supplier<CompletableFuture<T>> work,
+            ThrowingConsumer<T> respond,
+            Consumer<T> discard
+    ) {
+        ctx.future(() -> {
+            var upstream = work.get().orTimeout(timeout, TimeUnit.SECONDS);
+            var claimed = new AtomicBoolean(false);
+            var response = upstream.handleAsync((result, exception) -> {
+                if (exception == null) {
+                    // The request may have been abandoned in the meantime.
+                    if (!claimed.compareAndSet(false, true)) return null;
+
+                    try {
+                        respond.accept(result);
+                    } catch (Exception failure) {
+                        throw new CompletionException(failure);
+                    }
+                    return null;
+                }
+
+                var cause = exception instanceof CompletionException ?
+                        exception.getCause() : exception;
+                if (cause instanceof TimeoutException) {
+                    ctx.status(HttpStatus.GATEWAY_TIMEOUT).json(TIMED_OUT());
+                } else if (!(cause instanceof CancellationException)) {
+                    Laudiolin.getLogger().warn("Failed to handle request to {}.", ctx.path(), cause);
+                    ctx.status(500).json(INTERNAL_ERROR());
+                }
+
+                return null;
+            }, Laudiolin.getResponsePool());
+
+            // Release a result which no response will use.
+            Runnable abandon = () -> {
+                if (!response.isCancelled() || !upstream.isDone() ||
+                        upstream.isCompletedExceptionally()) return;
+                if (claimed.compareAndSet(false, true)) discard.accept(upstream.join());
+            };
+            upstream.whenComplete((result, exception) -> abandon.run());
+            response.whenComplete((result, exception) -> abandon.run());
+
+            // Javalin cancels the response when the client disconnects.
+            return ThreadUtils.link(response, upstream);
+        });
+    }
 
-        return new Pair<>(start, end);
+    /**
+     * A consumer which may throw an exception.
+     */
+    interface ThrowingConsumer<T> {
+        /**
+         * @param value The value to consume.
+         */
+        void accept(T value) throws Exception;
     }
 
     /**
@@ -261,6 +413,17 @@ public interface HttpUtils {
                 .gson();
     }
 
+    /**
+     * @return A 504 error.
+     */
+    static JsonObject TIMED_OUT() {
+        return JObject.c()
+                .add("timestamp", System.currentTimeMillis())
+                .add("code", 504)
+                .add("message", "The request timed out.")
+                .gson();
+    }
+
     /**
      * @return A 429 error.
      */
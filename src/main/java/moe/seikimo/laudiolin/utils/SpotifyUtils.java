@@ -7,11 +7,13 @@ import moe.seikimo.laudiolin.models.data.Playlist;
 import moe.seikimo.laudiolin.models.data.TrackData;
 import org.jetbrains.annotations.NotNull;
 import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
 import se.michaelthelin.spotify.model_objects.specification.Track;
 import se.michaelthelin.spotify.requests.authorization.client_credentials.ClientCredentialsRequest;
 
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -54,24 +56,24 @@ public interface SpotifyUtils {
      * Searches for a Spotify song.
      *
      * @param query The query to search for.
-     * @return The search result.
+     * @return A future resolving to the search result.
      */
-    static List<TrackData> search(String query) {
-        try {
-            // Fetch the tracks from the Spotify API.
-            var response = SPOTIFY.searchTracks(query)
-                    .build().execute();
-
-            // Parse each individual track, up to 8 + 1 (top).
-            var tracks = response.getItems();
-            return Arrays.stream(tracks)
-                    .map(SpotifyUtils::toTrackData)
-                    .limit(9)
-                    .toList();
-        } catch (Exception exception) {
-            Laudiolin.getLogger().warn("Failed to search Spotify for " + query + ".", exception);
-            return List.of();
-        }
+    static CompletableFuture<List<TrackData>> searchAsync(String query) {
+        // Fetch the tracks from the Spotify API.
+        return SPOTIFY.searchTracks(query)
+                .build().executeAsync()
+                .thenApply(response -> {
+                    // Parse each individual track, up to 8 + 1 (top).
+                    var tracks = response.getItems();
+                    return Arrays.stream(tracks)
+                            .map(SpotifyUtils::toTrackData)
+                            .limit(9)
+                            .toList();
+                })
+                .exceptionally(exception -> {
+                    Laudiolin.getLogger().warn("Failed to search Spotify for " + query + ".", exception);
+                    return List.of();
+                });
     }
 
     /**
@@ -81,10 +83,20 @@ public interface SpotifyUtils {
      * @return The search result.
      */
     static Track searchId(String id) {
+        return SpotifyUtils.searchIdAsync(id).join();
+    }
+
+    /**
+     * Searches by a general ID.
+     *
+     * @param id The ID to search for.
+     * @return A future resolving to the search result.
+     */
+    static CompletableFuture<Track> searchIdAsync(String id) {
         if (id.length() == 22) {
-            return SpotifyUtils.searchSpotifyId(id);
+            return SpotifyUtils.searchSpotifyIdAsync(id);
         } else if (id.length() == 12) {
-            return SpotifyUtils.searchIsrc(id);
+            return SpotifyUtils.searchIsrcAsync(id);
         } else throw new RuntimeException("Invalid ID.");
     }
 
@@ -95,12 +107,21 @@ public interface SpotifyUtils {
      * @return The search result.
      */
     static Track searchSpotifyId(String spotifyId) {
-        try {
-            return SPOTIFY.getTrack(spotifyId).build().execute();
-        } catch (Exception exception) {
-            Laudiolin.getLogger().warn("Failed to search Spotify ID " + spotifyId + ".", exception);
-            return null;
-        }
+        return SpotifyUtils.searchSpotifyIdAsync(spotifyId).join();
+    }
+
+    /**
+     * Searches a Spotify ID for a track.
+     *
+     * @param spotifyId The Spotify ID to search for.
+     * @return A future resolving to the search result, or null.
+     */
+    static CompletableFuture<Track> searchSpotifyIdAsync(String spotifyId) {
+        return SPOTIFY.getTrack(spotifyId).build().executeAsync()
+                .exceptionally(exception -> {
+                    Laudiolin.getLogger().warn("Failed to search Spotify ID " + spotifyId + ".", exception);
+                    return null;
+                });
     }
 
     /**
@@ -111,18 +132,21 @@ public interface SpotifyUtils {
      */
     @Nullable
     static Track searchIsrc(String isrc) {
-        var request = SPOTIFY.searchTracks("isrc:" + isrc)
-                .limit(1).build();
-        try {
-            var response = request.execute();
-            if (response.getTotal() < 1) {
-                throw new RuntimeException("No results found.");
-            }
+        return SpotifyUtils.searchIsrcAsync(isrc).join();
+    }
 
-            return response.getItems()[0];
-        } catch (Exception ignored) {
-            return null;
-        }
+    /**
+     * Searches an ISRC for a Spotify track.
+     *
+     * @param isrc The ISRC to search for.
+     * @return A future resolving to the search result, or null.
+     */
+    static CompletableFuture<Track> searchIsrcAsync(String isrc) {
+        return SPOTIFY.searchTracks("isrc:" + isrc)
+                .limit(1).build().executeAsync()
+                .thenApply(response -> response.getTotal() < 1 ?
+                        null : response.getItems()[0])
+                .exceptionally(exception -> null);
     }
 
     /**
@@ -173,89 +197,158 @@ public interface SpotifyUtils {
      * @return The YouTube video/ID.
      */
     static String toYouTubeId(String id) {
+        return SpotifyUtils.toYouTubeIdAsync(id).join();
+    }
+
+    /**
+     * Converts a Spotify ISRC/ID to a YouTube video/ID.
+     *
+     * @param id The Spotify ISRC/ID to convert.
+     * @return A future resolving to the YouTube video/ID, or an empty string.
+     */
+    static CompletableFuture<String> toYouTubeIdAsync(String id) {
         var node = Laudiolin.getNode();
 
         // Get the track by ID.
-        var track = ISRC_CACHE.get(id);
-        if (track == null) {
-            track = ISRC_CACHE.computeIfAbsent(id, k -> k.length() == 12 ?
-                    SpotifyUtils.searchIsrc(id) :
-                    SpotifyUtils.searchSpotifyId(id));
-        }
-        if (track == null) return "";
-        var trackData = SpotifyUtils.toTrackData(track);
-
-        var youtubeId = TRACK_CACHE.get(trackData);
-        if (youtubeId != null) return youtubeId;
-
-        // Perform the first YouTube search. (ISRC)
-        var isrc = track.getExternalIds().getExternalIds().get("isrc");
-        var search = node.youtubeSearch(isrc, true);
-        var first = search.isEmpty() ? null : search.get(0);
-        if (first != null && first.getTitle().contains(trackData.getTitle())) {
-            return TRACK_CACHE.computeIfAbsent(
-                    trackData, k -> first.getId());
-        }
+        var cached = ISRC_CACHE.get(id);
+        var lookup = cached != null ?
+                CompletableFuture.completedFuture(cached) :
+                (id.length() == 12 ?
+                        SpotifyUtils.searchIsrcAsync(id) :
+                        SpotifyUtils.searchSpotifyIdAsync(id))
+                        .thenApply(track -> {
+                            if (track != null) ISRC_CACHE.putIfAbsent(id, track);
+                            return track;
+                        });
+
+        return lookup.thenCompose(track -> {
+            if (track == null) return CompletableFuture.completedFuture("");
+            var trackData = SpotifyUtils.toTrackData(track);
+
+            var youtubeId = TRACK_CACHE.get(trackData);
+            if (youtubeId != null) return CompletableFuture.completedFuture(youtubeId);
 
-        // Prepare a YouTube query.
-        var query = String.format("%s - %s - Topic",
-                trackData.getTitle(), trackData.getArtist());
-        // Perform a second YouTube search. (song name)
-        var search2 = node.youtubeSearch(query, true);
-        if (search2.isEmpty()) return "";
+            // Perform the first YouTube search. (ISRC)
+            var isrc = track.getExternalIds().getExternalIds().get("isrc");
+            return node.youtubeSearchAsync(isrc, true).thenCompose(search -> {
+                var first = search.isEmpty() ? null : search.get(0);
+                if (first != null && first.getTitle().contains(trackData.getTitle())) {
+                    return CompletableFuture.completedFuture(TRACK_CACHE.computeIfAbsent(
+                            trackData, k -> first.getId()));
+                }
 
-        return TRACK_CACHE.computeIfAbsent(
-                trackData, k -> search2.get(0).getId());
+                // Prepare a YouTube query.
+                var query = String.format("%s - %s - Topic",
+                        trackData.getTitle(), trackData.getArtist());
+                // Perform a second YouTube search. (song name)
+                return node.youtubeSearchAsync(query, true).thenApply(search2 -> {
+                    if (search2.isEmpty()) return "";
+
+                    return TRACK_CACHE.computeIfAbsent(
+                            trackData, k -> search2.get(0).getId());
+                });
+            });
+        });
     }
 
     /**
      * Converts a Spotify playlist into a Laudiolin playlist.
+     * Pages of tracks are fetched one after another without blocking.
      *
      * @param url The URL of the playlist.
-     * @return The converted playlist.
+     * @return A future resolving to the converted playlist.
      */
-    static Playlist playlist(String url) throws Exception {
+    static CompletableFuture<Playlist> playlistAsync(String url) {
         // Extract the ID from the URL.
         var id = url.split("playlist/")[1];
         if (id.contains("?")) {
             // Remove URL arguments.
             id = id.split("\\?")[0];
         }
+
         // Fetch the Spotify playlist.
-        var playlist = SPOTIFY.getPlaylist(id)
-                .build().execute();
-        var tracks = playlist.getTracks();
-
-        // Convert the playlist.
-        var converted = new Playlist()
-                .setName(playlist.getName())
-                .setDescription(playlist.getDescription())
-                .setIcon(playlist.getImages()[0].getUrl())
-                .setPrivate(!playlist.getIsPublicAccess());
-        int offset = 0, limit = tracks.getTotal();
-
-        var items = tracks.getItems();
-        while (true) {
-            for (var item : items) {
-                if (item.getIsLocal()) continue;
-                var rawTrack = item.getTrack();
-                if (!(rawTrack instanceof Track track)) continue;
-
-                // Parse the track.
-                var parsed = SpotifyUtils.toTrackData(track);
-                converted.getTracks().add(parsed);
-            }
-
-            // Check if there are more tracks.
-            if (offset < limit) {
-                offset += items.length;
-                items = SPOTIFY.getPlaylistsItems(id)
-                        .offset(offset).build().execute()
-                        .getItems();
-            } else break;
+        var playlistId = id;
+        var result = new CompletableFuture<Playlist>();
+        SPOTIFY.getPlaylist(playlistId).build().executeAsync()
+                .thenAccept(playlist -> {
+                    var tracks = playlist.getTracks();
+
+                    // Convert the playlist.
+                    var converted = new Playlist()
+                            .setName(playlist.getName())
+                            .setDescription(playlist.getDescription())
+                            .setIcon(playlist.getImages()[0].getUrl())
+                            .setPrivate(!playlist.getIsPublicAccess());
+                    SpotifyUtils.addTracks(converted, tracks.getItems());
+
+                    SpotifyUtils.fetchTracks(result, playlistId, converted,
+                            tracks.getItems().length, tracks.getTotal());
+                })
+                .exceptionally(exception -> {
+                    result.completeExceptionally(exception);
+                    return null;
+                });
+
+        return result;
+    }
+
+    /**
+     * Fetches the remaining pages of a playlist's tracks.
+     *
+     * @param result The future to complete with the playlist.
+     * @param id The Spotify playlist ID.
+     * @param converted The playlist to add the tracks to.
+     * @param offset The offset of the next page.
+     * @param total The total amount of tracks.
+     */
+    private static void fetchTracks(
+            CompletableFuture<Playlist> result, String id,
+            Playlist converted, int offset, int total
+    ) {
+        // Stop fetching if nothing is waiting on the playlist.
+        if (result.isDone()) return;
+
+        // Check if there are more tracks.
+        if (offset >= total) {
+            result.complete(converted);
+            return;
         }
 
-        return converted;
+        SPOTIFY.getPlaylistsItems(id)
+                .offset(offset).build().executeAsync()
+                .thenAccept(page -> {
+                    var items = page.getItems();
+                    if (items.length == 0) {
+                        result.complete(converted);
+                        return;
+                    }
+
+                    SpotifyUtils.addTracks(converted, items);
+                    SpotifyUtils.fetchTracks(result, id, converted,
+                            offset + items.length, total);
+                })
+                .exceptionally(exception -> {
+                    result.completeExceptionally(exception);
+                    return null;
+                });
+    }
+
+    /**
+     * Adds the tracks of a playlist page to a converted playlist.
+     *
+     * @param converted The converted playlist.
+     * @param items The tracks of the page.
+     */
+    private static void addTracks(Playlist converted, PlaylistTrack[] items) {
+        for (var item : items) {
+            if (item.getIsLocal()) continue;
+            var rawTrack = item.getTrack();
+            if (!(rawTrack instanceof Track track)) continue;
+
+            // Parse the track.
+            var parsed = SpotifyUtils.toTrackData(track);
+            converted.getTracks().add(parsed);
+        }
     }
 
     final class AuthorizeTask extends TimerTask {
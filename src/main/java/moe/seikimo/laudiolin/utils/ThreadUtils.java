@@ -0,0 +1,92 @@
+package moe.seikimo.laudiolin.utils;
+
+import moe.seikimo.laudiolin.Config;
+import moe.seikimo.laudiolin.Laudiolin;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+public interface ThreadUtils {
+    /**
+     * Virtual threads are only available on Java 21 and newer.
+     *
+     * @return Whether virtual threads are enabled and supported.
+     */
+    static boolean useVirtualThreads() {
+        return Config.get().isVirtualThreads() && VirtualThreads.areSupported();
+    }
+
+    /**
+     * Creates an executor for background tasks.
+     *
+     * @param threads The amount of platform threads to use without virtual threads.
+     * @return The executor.
+     */
+    static ExecutorService newExecutor(int threads) {
+        var executor = ThreadUtils.newVirtualExecutor();
+        return executor != null ? executor : new ScheduledThreadPoolExecutor(threads);
+    }
+
+    /**
+     * Creates an executor for blocking tasks, such as writing responses.
+     * Any amount of tasks may run at once; idle platform threads are reused.
+     *
+     * @return The executor.
+     */
+    static ExecutorService newUnboundedExecutor() {
+        var executor = ThreadUtils.newVirtualExecutor();
+        return executor != null ? executor : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * @return An executor which runs each task on a virtual thread, or null if unavailable.
+     */
+    private static ExecutorService newVirtualExecutor() {
+        if (!ThreadUtils.useVirtualThreads()) return null;
+
+        try {
+            // Resolved reflectively, as the backend targets Java 17.
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            Laudiolin.getLogger().warn("Unable to create a virtual thread executor.", exception);
+            return null;
+        }
+    }
+
+    /**
+     * Makes Jetty handle requests on virtual threads.
+     * Blocking handlers then no longer occupy the server's thread pool.
+     *
+     * @param server The Jetty server.
+     */
+    static void configureServer(Server server) {
+        if (!ThreadUtils.useVirtualThreads()) return;
+
+        if (server.getThreadPool() instanceof VirtualThreads.Configurable pool) {
+            pool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            Laudiolin.getLogger().info("Handling requests on virtual threads.");
+        }
+    }
+
+    /**
+     * Cancels a future when a stage derived from it fails or is cancelled.
+     * This stops upstream work which nothing is waiting on anymore.
+     *
+     * @param stage The derived stage.
+     * @param source The future the stage depends on.
+     * @return The stage.
+     */
+    static <T> CompletableFuture<T> link(CompletableFuture<T> stage, Future<?> source) {
+        stage.whenComplete((result, exception) -> {
+            if (exception != null) source.cancel(true);
+        });
+
+        return stage;
+    }
+}
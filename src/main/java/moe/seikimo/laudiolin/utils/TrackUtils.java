@@ -9,8 +9,30 @@ import moe.seikimo.laudiolin.objects.DiscordPresence;
 import moe.seikimo.laudiolin.objects.user.PresenceMode;
 
 import java.util.List;
+import java.util.regex.Pattern;
 
 public interface TrackUtils {
+    /* Icons which were served by an old backend. */
+    Pattern LEGACY_ICON = Pattern.compile("localhost:");
+    /* Sources which pointed at an old backend's stream route. */
+    Pattern LEGACY_URL = Pattern.compile("/stream|\\?id=|&quality=");
+
+    /**
+     * @param icon The icon URL of a stored track.
+     * @return Whether the icon should be looked up again.
+     */
+    static boolean isLegacyIcon(String icon) {
+        return icon != null && LEGACY_ICON.matcher(icon).find();
+    }
+
+    /**
+     * @param url The source URL of a stored track.
+     * @return Whether the source should be looked up again.
+     */
+    static boolean isLegacyUrl(String url) {
+        return url != null && LEGACY_URL.matcher(url).find();
+    }
+
     /**
      * Attempts to look up a track's data from its ID.
      *
@@ -9,6 +9,8 @@ const messages: { [key: number]: any } = {
     [PacketIds._YouTubeStreamReq]: require("@messages/YouTubeStreamReq").default,
     [PacketIds._YouTubeFetchReq]: require("@messages/YouTubeFetchReq").default,
     [PacketIds._YouTubePlaylistReq]: require("@messages/YouTubePlaylistReq").default,
+    [PacketIds._YouTubeStreamChunkedReq]: require("@messages/YouTubeStreamChunkedReq").default,
+    [PacketIds._YouTubeStreamAck]: require("@messages/YouTubeStreamAck").default,
 };
 
 
@@ -2,9 +2,9 @@ import { YouTubeDownloadReq, YouTubeDownloadRsp } from "@app/Messages";
 import { sendPacket } from "@app/java";
 
 import { WebSocket } from "ws";
-import { existsSync, createWriteStream, rmSync } from "fs";
+import { existsSync, createWriteStream, mkdirSync, renameSync, rmSync } from "fs";
 import ffmpeg from "fluent-ffmpeg";
-import { join } from "path";
+import { dirname, join } from "path";
 
 import { youtube, storagePath } from "@app/index";
 import { extractId, streamToIterable } from "@app/utils";
@@ -12,18 +12,25 @@ import { Utils } from "youtubei.js";
 
 /**
  * Handles the downloading of a YouTube video.
+ * The transcode is written to a partial file, so a finished file is never truncated.
  *
  * @param id The ID of the video to download.
+ * @param target The partial file Java wants written; Java moves it into place.
  */
-async function downloadInternal(id: string): Promise<string> {
+async function downloadInternal(id: string, target: string): Promise<string> {
     // Save the file to the disk.
-    const filePath = join(storagePath, `${id}.mp3`);
+    const filePath = target || join(storagePath, `${id}.mp3`);
+    const output = target || `${filePath}.part`;
+    mkdirSync(dirname(filePath), { recursive: true });
 
     // Check if the file already exists.
-    if (existsSync(filePath)) {
+    if (!target && existsSync(filePath)) {
         return filePath; // Return the path to the file.
     }
 
+    // Discard a partial file left by an interrupted transcode.
+    rmSync(output, { force: true });
+
     // Create a stream for the video.
     const stream = await youtube.download(id, {
         type: "audio",
@@ -33,7 +40,7 @@ async function downloadInternal(id: string): Promise<string> {
     });
 
     // Write the stream to a temporary file.
-    const temporary = `${filePath}.tmp`;
+    const temporary = `${output}.tmp`;
     const fileStream = createWriteStream(temporary);
     const chunks = await streamToIterable(stream);
     fileStream.write(chunks);
@@ -43,18 +50,22 @@ async function downloadInternal(id: string): Promise<string> {
     await new Promise<string>((resolve, reject) => {
         ffmpeg(temporary)
             .on("end", () => {
+                // Move the finished file into place, unless Java does.
+                if (!target) renameSync(output, filePath);
                 resolve(filePath);
 
                 // Delete the temporary file.
                 rmSync(temporary, { force: true });
             })
             .on("error", err => {
+                rmSync(output, { force: true });
                 reject(err); console.error("Error: ", err);
             })
             .audioBitrate(128)
             .audioFrequency(44100)
             .audioChannels(2)
-            .save(filePath)
+            .format("mp3")
+            .save(output)
     });
 
     return filePath;
@@ -70,7 +81,7 @@ export default async function(socket: WebSocket, retcode: number, req: Buffer){
 
     try {
         // Get the file path.
-        const filePath = await downloadInternal(id);
+        const filePath = await downloadInternal(id, request.filePath);
 
         // Send the response packet.
         sendPacket(socket, retcode,
@@ -0,0 +1,10 @@
+import { YouTubeStreamAck } from "@app/Messages";
+
+import { WebSocket } from "ws";
+
+import { acknowledge } from "@app/streams";
+
+export default async function(_: WebSocket, retcode: number, req: Buffer) {
+    const { sequence, cancel } = YouTubeStreamAck.fromBinary(req);
+    acknowledge(retcode, sequence, cancel);
+}
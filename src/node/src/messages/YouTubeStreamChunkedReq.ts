@@ -0,0 +1,103 @@
+import { YouTubeStreamChunk, YouTubeStreamReq } from "@app/Messages";
+
+import { WebSocket } from "ws";
+
+import { sendPacket } from "@app/java";
+import { extractId } from "@app/utils";
+import { open, close, waitForCredit } from "@app/streams";
+
+import { youtube } from "@app/index";
+import { Utils } from "youtubei.js";
+
+/**
+ * Sends a chunk frame to Java.
+ *
+ * @param socket The socket to send the frame on.
+ * @param retcode The retcode of the stream.
+ * @param chunk The chunk to send.
+ */
+function sendChunk(socket: WebSocket, retcode: number, chunk: Partial<YouTubeStreamChunk>): void {
+    sendPacket(socket, retcode, YouTubeStreamChunk.toBinary(
+        YouTubeStreamChunk.create(chunk)));
+}
+
+export default async function(socket: WebSocket, retcode: number, req: Buffer) {
+    const {
+        videoId, quality, start, end, window, contentLength, mimeType
+    } = YouTubeStreamReq.fromBinary(req);
+
+    // Parse the video ID.
+    let id = videoId;
+    if (id.includes("http"))
+        id = extractId(id);
+
+    const state = open(retcode);
+    try {
+        const format = quality == "High" ? "best" : "bestefficiency";
+
+        // Fetch the data required for streaming, unless Java knows it.
+        let length = contentLength, mime = mimeType;
+        if (length == 0) {
+            const streamingData =
+                await youtube.getStreamingData(id, {
+                    type: "audio", quality: format, format: "any"
+                });
+            length = streamingData.content_length ?? 0;
+            mime = streamingData.mime_type ?? "";
+        }
+        if (length == 0) throw new Error("Invalid content length.");
+
+        // The range is past the end of the video.
+        if (start >= length) {
+            sendChunk(socket, retcode, {
+                end: true, successful: true, contentLength: length, mimeType: mime
+            });
+            return;
+        }
+
+        // Download the video.
+        const stream =
+            await youtube.download(id, {
+                type: "audio", format: "any",
+                quality: format,
+                range: { start, end: Math.min(end, length) },
+                client: "YTMUSIC"
+            });
+
+        // Send each chunk as it is downloaded.
+        const reader = stream.getReader();
+        try {
+            while (true) {
+                await waitForCredit(state, Math.max(1, window));
+                if (state.cancelled) break;
+
+                const { done, value } = await reader.read();
+                if (done) break;
+
+                sendChunk(socket, retcode, {
+                    sequence: ++state.sent, data: value,
+                    contentLength: length, mimeType: mime
+                });
+            }
+        } finally {
+            if (state.cancelled) await reader.cancel();
+            reader.releaseLock();
+        }
+
+        // Send the end frame.
+        if (!state.cancelled) {
+            sendChunk(socket, retcode, {
+                end: true, successful: true, contentLength: length, mimeType: mime
+            });
+        }
+    } catch (error) {
+        if (error instanceof Utils.InnertubeError) {
+            console.log("Innertube error: ", error.info);
+        }
+
+        sendChunk(socket, retcode, { end: true, successful: false });
+        throw error;
+    } finally {
+        close(retcode);
+    }
+}
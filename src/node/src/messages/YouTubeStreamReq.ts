@@ -16,24 +16,31 @@ import { Utils } from "youtubei.js";
  * @param quality The quality of the video to download.
  * @param min The minimum byte to download.
  * @param max The maximum byte to download.
+ * @param contentLength The known length of the video, or 0 if unknown.
  */
 async function streamInternal(
     id: string, quality: string,
-    min: number, max: number
+    min: number, max: number,
+    contentLength: number
 ): Promise<{ buffer: Uint8Array, length: number }> {
-    // Fetch the data required for streaming.
-    const streamingData =
-        await youtube.getStreamingData(id, {
-            type: "audio", quality: "best", format: "any"
-        });
-    const length = streamingData.content_length ?? 0;
+    const format = quality == "High" ? "best" : "bestefficiency";
+
+    // Fetch the data required for streaming, unless Java knows it.
+    let length = contentLength;
+    if (length == 0) {
+        const streamingData =
+            await youtube.getStreamingData(id, {
+                type: "audio", quality: format, format: "any"
+            });
+        length = streamingData.content_length ?? 0;
+    }
     if (length == 0) throw new Error("Invalid content length.");
 
     // Download the video.
     const stream =
         await youtube.download(id, {
             type: "audio", format: "any",
-            quality: quality == "High" ? "best" : "bestefficiency",
+            quality: format,
             range: { start: min, end: Math.min(max, length) },
             client: "YTMUSIC"
         });
@@ -45,7 +52,7 @@ async function streamInternal(
 }
 
 export default async function(socket: WebSocket, retcode: number, req: Buffer) {
-    const { videoId, quality, start, end } = YouTubeStreamReq.fromBinary(req);
+    const { videoId, quality, start, end, contentLength } = YouTubeStreamReq.fromBinary(req);
 
     // Parse the video ID.
     let id = videoId;
@@ -55,7 +62,7 @@ export default async function(socket: WebSocket, retcode: number, req: Buffer) {
     try {
         // Attempt to stream the video.
         const { buffer, length } =
-            await streamInternal(id, quality, start, end);
+            await streamInternal(id, quality, start, end, contentLength);
 
         // Send the response packet.
         sendPacket(socket, retcode, YouTubeStreamRsp.toBinary(
@@ -0,0 +1,62 @@
+/**
+ * The flow control state of a chunked stream.
+ */
+type StreamState = {
+    sent: number; // The sequence number of the last chunk sent.
+    acknowledged: number; // The sequence number of the last chunk acknowledged.
+    cancelled: boolean;
+    waiter?: () => void;
+};
+
+/* Retcode -> The state of the stream. */
+const streams: { [key: number]: StreamState } = {};
+
+/**
+ * Registers a new chunked stream.
+ *
+ * @param retcode The retcode of the stream.
+ */
+export function open(retcode: number): StreamState {
+    return streams[retcode] = { sent: 0, acknowledged: 0, cancelled: false };
+}
+
+/**
+ * Unregisters a chunked stream.
+ *
+ * @param retcode The retcode of the stream.
+ */
+export function close(retcode: number): void {
+    delete streams[retcode];
+}
+
+/**
+ * Records an acknowledgement from Java.
+ *
+ * @param retcode The retcode of the stream.
+ * @param sequence The sequence number of the acknowledged chunk.
+ * @param cancel Whether the stream should be cancelled.
+ */
+export function acknowledge(retcode: number, sequence: number, cancel: boolean): void {
+    const state = streams[retcode];
+    if (!state) return;
+
+    if (cancel) state.cancelled = true;
+    state.acknowledged = Math.max(state.acknowledged, sequence);
+
+    // Wake up the sender.
+    const waiter = state.waiter;
+    state.waiter = undefined;
+    waiter?.();
+}
+
+/**
+ * Waits until another chunk may be sent.
+ *
+ * @param state The state of the stream.
+ * @param window The amount of chunks which may be unacknowledged.
+ */
+export async function waitForCredit(state: StreamState, window: number): Promise<void> {
+    while (!state.cancelled && state.sent - state.acknowledged >= window) {
+        await new Promise<void>(resolve => state.waiter = resolve);
+    }
+}